@@ -0,0 +1,317 @@
+package net.devemperor.dictate;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import net.devemperor.dictate.api.OpenAIClientPool;
+import net.devemperor.dictate.api.SplitTranscriptionJob;
+import net.devemperor.dictate.audio.VoiceActivityDetector;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable snapshot of the settings used while transcribing, rewording and outputting text. It is built
+ * once from the SharedPreferences (including the fallbacks to older keys and the sanitizing of the API keys)
+ * and replaced as a whole whenever a preference changes, so request paths only read final fields.
+ */
+public final class DictateConfig {
+
+    /**
+     * The connection settings of the transcription or rewording API
+     */
+    public static final class ApiConfig {
+        private final int provider;
+        private final String apiHost;
+        private final String apiKey;
+        private final String model;
+        private final float temperature;
+
+        private ApiConfig(Context context, SharedPreferences sp, String purpose, String openAiFallbackKey, String openAiDefaultModel,
+                          String groqDefaultModel, int customModelHint, float defaultTemperature) {
+            provider = sp.getInt("net.devemperor.dictate." + purpose + "_provider", 0);
+            String host = context.getResources().getStringArray(R.array.dictate_api_providers_values)[provider];
+            if (host.equals("custom_server")) {
+                host = sp.getString("net.devemperor.dictate." + purpose + "_custom_host", context.getString(R.string.dictate_custom_server_host_hint));
+            }
+            apiHost = host;
+            apiKey = sp.getString("net.devemperor.dictate." + purpose + "_api_key", sp.getString("net.devemperor.dictate.api_key", "NO_API_KEY")).replaceAll("[^ -~]", "");
+
+            switch (provider) {  // for upgrading: use old model preference
+                case 0: model = sp.getString("net.devemperor.dictate." + purpose + "_openai_model", sp.getString(openAiFallbackKey, openAiDefaultModel)); break;
+                case 1: model = sp.getString("net.devemperor.dictate." + purpose + "_groq_model", groqDefaultModel); break;
+                case 2: model = sp.getString("net.devemperor.dictate." + purpose + "_custom_model", context.getString(customModelHint)); break;
+                default: model = "";
+            }
+            temperature = sp.getFloat("net.devemperor.dictate." + purpose + "_temperature", defaultTemperature);
+        }
+
+        private ApiConfig(int provider, String apiHost, String apiKey, String model, float temperature) {
+            this.provider = provider;
+            this.apiHost = apiHost;
+            this.apiKey = apiKey;
+            this.model = model;
+            this.temperature = temperature;
+        }
+
+        public int getProvider() {
+            return provider;
+        }
+
+        public String getApiHost() {
+            return apiHost;
+        }
+
+        public String getApiKey() {
+            return apiKey;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public float getTemperature() {
+            return temperature;
+        }
+    }
+
+    private static final AtomicReference<DictateConfig> current = new AtomicReference<>();
+    // SharedPreferences only keeps a weak reference to its listeners, so we have to hold it here
+    private static SharedPreferences.OnSharedPreferenceChangeListener preferenceListener;
+
+    private final ApiConfig transcription;
+    private final ApiConfig rewording;
+    private final ApiConfig transcriptionFailover;
+    private final boolean transcriptionHedging;
+    private final int transcriptionParallelism;
+    private final String audioCodec;
+    private final boolean vadEnabled;
+    private final float vadThreshold;
+    private final boolean chunkedTranscription;
+    private final boolean progressiveUpload;
+    private final String proxyHost;
+    private final String stylePrompt;
+    private final boolean usePromptAsSystemPrompt;
+    private final boolean rewordingEnabled;
+    private final boolean rewordingStreaming;
+    private final boolean rewordingCacheNonDeterministic;
+    private final boolean resendButton;
+    private final boolean tracingEnabled;
+    private final boolean offlineQueue;
+    private final String screenshotFormat;
+    private final int screenshotQuality;
+    private final int screenshotMaxEdge;
+    private final float outputCharsPerSecond;
+
+    private DictateConfig(Context context, SharedPreferences sp) {
+        transcription = new ApiConfig(context, sp, "transcription", "net.devemperor.dictate.transcription_model", "gpt-4o-mini-transcribe",
+                "whisper-large-v3-turbo", R.string.dictate_custom_transcription_model_hint, 0.0f);
+        rewording = new ApiConfig(context, sp, "rewording", "net.devemperor.dictate.rewording_model", "gpt-4o-mini",
+                "llama-3.3-70b-versatile", R.string.dictate_custom_rewording_model_hint, 0.7f);
+        transcriptionFailover = buildTranscriptionFailover(context, sp, transcription.getTemperature());
+        transcriptionHedging = transcriptionFailover != null && sp.getBoolean("net.devemperor.dictate.transcription_hedging", false);
+        transcriptionParallelism = SplitTranscriptionJob.getParallelism(sp, transcription.getProvider());
+
+        audioCodec = sp.getString("net.devemperor.dictate.audio_codec", "auto");
+        vadEnabled = sp.getBoolean("net.devemperor.dictate.vad_enabled", false);
+        vadThreshold = VoiceActivityDetector.thresholdFromSetting(sp.getInt("net.devemperor.dictate.vad_threshold", 5));
+        chunkedTranscription = sp.getBoolean("net.devemperor.dictate.chunked_transcription", false);
+        progressiveUpload = sp.getBoolean("net.devemperor.dictate.progressive_upload", false);
+
+        String proxy = sp.getBoolean("net.devemperor.dictate.proxy_enabled", false) ? sp.getString("net.devemperor.dictate.proxy_host", "") : "";
+        proxyHost = DictateUtils.isValidProxy(proxy) ? proxy : "";
+
+        switch (sp.getInt("net.devemperor.dictate.style_prompt_selection", 1)) {
+            case 1: stylePrompt = DictateUtils.PROMPT_PUNCTUATION_CAPITALIZATION; break;
+            case 2: stylePrompt = sp.getString("net.devemperor.dictate.style_prompt_custom_text", ""); break;
+            default: stylePrompt = "";
+        }
+
+        usePromptAsSystemPrompt = sp.getBoolean("net.devemperor.dictate.use_prompt_as_system_prompt", false);
+        rewordingEnabled = sp.getBoolean("net.devemperor.dictate.rewording_enabled", true);
+        rewordingStreaming = sp.getBoolean("net.devemperor.dictate.rewording_streaming", false);
+        rewordingCacheNonDeterministic = sp.getBoolean("net.devemperor.dictate.rewording_cache_non_deterministic", false);
+        resendButton = sp.getBoolean("net.devemperor.dictate.resend_button", false);
+        tracingEnabled = sp.getBoolean("net.devemperor.dictate.tracing_enabled", false);
+        offlineQueue = sp.getBoolean("net.devemperor.dictate.offline_queue", true);
+        screenshotFormat = sp.getString("net.devemperor.dictate.screenshot_format", "webp");
+        screenshotQuality = sp.getInt("net.devemperor.dictate.screenshot_quality", 80);
+        screenshotMaxEdge = sp.getInt("net.devemperor.dictate.screenshot_max_edge", 1536);
+        outputCharsPerSecond = sp.getBoolean("net.devemperor.dictate.instant_output", false)
+                ? 0 : 10f * sp.getInt("net.devemperor.dictate.output_speed", 5);  // speed 5 types 50 characters per second
+    }
+
+    /**
+     * @return The provider to use when the selected one fails or is slow, null if none is configured
+     */
+    private static ApiConfig buildTranscriptionFailover(Context context, SharedPreferences sp, float temperature) {
+        int provider;
+        try {
+            provider = Integer.parseInt(sp.getString("net.devemperor.dictate.transcription_failover_provider", "-1"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (provider < 0) return null;
+
+        String host = context.getResources().getStringArray(R.array.dictate_api_providers_values)[provider];
+        if (host.equals("custom_server")) host = sp.getString("net.devemperor.dictate.transcription_failover_custom_host", "");
+        String apiKey = sp.getString("net.devemperor.dictate.transcription_failover_api_key", "").replaceAll("[^ -~]", "");
+        if (host.isEmpty() || apiKey.isEmpty()) return null;
+
+        String model = sp.getString("net.devemperor.dictate.transcription_failover_model", "");
+        if (model.isEmpty()) {
+            switch (provider) {
+                case 0: model = "gpt-4o-mini-transcribe"; break;
+                case 1: model = "whisper-large-v3-turbo"; break;
+                default: model = context.getString(R.string.dictate_custom_transcription_model_hint);
+            }
+        }
+        return new ApiConfig(provider, host, apiKey, model, temperature);
+    }
+
+    /**
+     * @return The current snapshot, the first call reads the SharedPreferences and starts listening for changes
+     */
+    public static DictateConfig get(Context context) {
+        DictateConfig config = current.get();
+        if (config != null) return config;
+
+        synchronized (DictateConfig.class) {
+            if (current.get() == null) {
+                Context appContext = context.getApplicationContext();
+                SharedPreferences sp = appContext.getSharedPreferences("net.devemperor.dictate", Context.MODE_PRIVATE);
+                preferenceListener = (sharedPreferences, key) -> {
+                    current.set(new DictateConfig(appContext, sharedPreferences));
+                    OpenAIClientPool.onPreferenceChanged(key);  // after the new config, so rebuilt clients use it
+                };
+                sp.registerOnSharedPreferenceChangeListener(preferenceListener);
+                current.set(new DictateConfig(appContext, sp));
+            }
+            return current.get();
+        }
+    }
+
+    public ApiConfig getTranscription() {
+        return transcription;
+    }
+
+    public ApiConfig getRewording() {
+        return rewording;
+    }
+
+    /**
+     * @return The next provider in the failover chain of the transcription, null if there is none
+     */
+    public ApiConfig getTranscriptionFailover() {
+        return transcriptionFailover;
+    }
+
+    /**
+     * @return Whether the failover provider is started in parallel when the selected one is slower than usual
+     */
+    public boolean isTranscriptionHedging() {
+        return transcriptionHedging;
+    }
+
+    /**
+     * @return The number of concurrent requests when a long recording is transcribed in windows
+     */
+    public int getTranscriptionParallelism() {
+        return transcriptionParallelism;
+    }
+
+    /**
+     * @return "auto" or the name of the recording codec chosen in the settings
+     */
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+
+    /**
+     * @return Whether silence is cut out of recordings before they are encoded
+     */
+    public boolean isVadEnabled() {
+        return vadEnabled;
+    }
+
+    /**
+     * @return The threshold for {@link VoiceActivityDetector}, derived from the sensitivity setting
+     */
+    public float getVadThreshold() {
+        return vadThreshold;
+    }
+
+    public boolean isChunkedTranscription() {
+        return chunkedTranscription;
+    }
+
+    public boolean isProgressiveUpload() {
+        return progressiveUpload;
+    }
+
+    /**
+     * @return The validated proxy, empty if no proxy should be used
+     */
+    public String getProxyHost() {
+        return proxyHost;
+    }
+
+    public String getStylePrompt() {
+        return stylePrompt;
+    }
+
+    public boolean isUsePromptAsSystemPrompt() {
+        return usePromptAsSystemPrompt;
+    }
+
+    public boolean isRewordingEnabled() {
+        return rewordingEnabled;
+    }
+
+    public boolean isRewordingStreaming() {
+        return rewordingStreaming;
+    }
+
+    /**
+     * @return Whether rewordings are also cached if the temperature is above 0
+     */
+    public boolean isRewordingCacheNonDeterministic() {
+        return rewordingCacheNonDeterministic;
+    }
+
+    public boolean isResendButton() {
+        return resendButton;
+    }
+
+    public boolean isTracingEnabled() {
+        return tracingEnabled;
+    }
+
+    public boolean isOfflineQueue() {
+        return offlineQueue;
+    }
+
+    /**
+     * @return "webp" or "jpeg"
+     */
+    public String getScreenshotFormat() {
+        return screenshotFormat;
+    }
+
+    public int getScreenshotQuality() {
+        return screenshotQuality;
+    }
+
+    /**
+     * @return The maximum width and height of screenshots sent with a prompt in pixels
+     */
+    public int getScreenshotMaxEdge() {
+        return screenshotMaxEdge;
+    }
+
+    /**
+     * @return The typing speed of the output animation, 0 if instant output is enabled
+     */
+    public float getOutputCharsPerSecond() {
+        return outputCharsPerSecond;
+    }
+}
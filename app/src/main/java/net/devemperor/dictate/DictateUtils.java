@@ -19,7 +19,7 @@ import java.util.regex.Pattern;
 import android.content.Context;
 import android.content.ComponentName;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.media.MediaMetadataRetriever;
 import android.os.Build;
 import android.text.TextUtils;
@@ -31,6 +31,7 @@ import androidx.annotation.RequiresApi;
 import com.openai.client.okhttp.OpenAIOkHttpClient;
 
 import net.devemperor.dictate.core.DictateAccessibilityService;
+import net.devemperor.dictate.core.ScreenshotEncoder;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -41,13 +42,19 @@ import java.net.PasswordAuthentication;
 import java.net.Proxy;
 import java.text.BreakIterator;
 import java.util.Locale;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class DictateUtils {
 
     public static final String PROMPT_PUNCTUATION_CAPITALIZATION = "This sentence has capitalization and punctuation.";
+    public static final long SCREENSHOT_TIMEOUT_MS = 2500;  // after that, prompts are sent without the screenshot
+
+    // keeps copying and compressing screenshots off the main thread, a callback that never comes doesn't leak a thread
+    private static final ExecutorService screenshotExecutor = Executors.newSingleThreadExecutor();
 
     public static double calcModelCost(String modelName, long audioTime, long inputTokens, long outputTokens) {
         switch (modelName) {
@@ -202,33 +209,45 @@ public class DictateUtils {
         String proxyInput = sp.getString("net.devemperor.dictate.proxy_host", "");
         boolean proxyEnabled = sp.getBoolean("net.devemperor.dictate.proxy_enabled", false);
 
-        if (!proxyEnabled || proxyInput.isEmpty()) return;
+        if (!proxyEnabled) return;
+        applyProxy(clientBuilder, proxyInput);
+    }
+
+    public static void applyProxy(OpenAIOkHttpClient.Builder clientBuilder, String proxyInput) {
+        Proxy proxy = parseProxy(proxyInput);
+        if (proxy != null) clientBuilder.proxy(proxy);
+    }
+
+    /**
+     * Parses a proxy of the form [socks5|http://][user:pass@]host:port and registers its credentials
+     *
+     * @return The proxy, null if the input is empty or invalid
+     */
+    public static Proxy parseProxy(String proxyInput) {
+        if (proxyInput.isEmpty()) return null;
 
         Pattern pattern = Pattern.compile("^(?:(socks5|http)://)?(?:(\\w+):(\\w+)@)?([\\w.-]+):(\\d+)$");
         Matcher matcher = pattern.matcher(proxyInput);
+        if (!matcher.matches()) return null;
 
-        if (matcher.matches()) {
-            String type = matcher.group(1); // "socks5" or "http" or null
-            String user = matcher.group(2); // optional
-            String pass = matcher.group(3); // optional
-            String host = matcher.group(4);
-            int port = Integer.parseInt(matcher.group(5));
-
-            Proxy.Type proxyType = Proxy.Type.HTTP; // Default
-            if ("socks5".equalsIgnoreCase(type)) proxyType = Proxy.Type.SOCKS;
-
-            Proxy proxy = new Proxy(proxyType, new InetSocketAddress(host, port));
-            clientBuilder.proxy(proxy);
-
-            if (user != null && pass != null) {
-                Authenticator.setDefault(new Authenticator() {
-                    @Override
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(user, pass.toCharArray());
-                    }
-                });
-            }
+        String type = matcher.group(1); // "socks5" or "http" or null
+        String user = matcher.group(2); // optional
+        String pass = matcher.group(3); // optional
+        String host = matcher.group(4);
+        int port = Integer.parseInt(matcher.group(5));
+
+        Proxy.Type proxyType = Proxy.Type.HTTP; // Default
+        if ("socks5".equalsIgnoreCase(type)) proxyType = Proxy.Type.SOCKS;
+
+        if (user != null && pass != null) {
+            Authenticator.setDefault(new Authenticator() {
+                @Override
+                protected PasswordAuthentication getPasswordAuthentication() {
+                    return new PasswordAuthentication(user, pass.toCharArray());
+                }
+            });
         }
+        return new Proxy(proxyType, new InetSocketAddress(host, port));
     }
 
     public static String translateLanguageToEmoji(String language) {
@@ -404,52 +423,65 @@ public class DictateUtils {
         return false;
     }
 
+    /**
+     * The outcome of {@link #takeScreenshotAsync(Context, DictateConfig)}
+     */
+    public static class Screenshot {
+        public final String result;  // the path of the encoded image or "SERVICE_DISABLED", "SERVICE_NOT_BOUND" or "FAILED"
+        public final long encodeMillis;  // -1 if nothing was encoded
+
+        public Screenshot(String result, long encodeMillis) {
+            this.result = result;
+            this.encodeMillis = encodeMillis;
+        }
+    }
+
+    /**
+     * Starts capturing the screen, cropped to the focused window and encoded as configured, without waiting
+     * for it, so the text of the prompt can be collected in the meantime. Callers should wait at most
+     * {@link #SCREENSHOT_TIMEOUT_MS} for it.
+     *
+     * @return Completes with the screenshot, never exceptionally
+     */
     @RequiresApi(api = Build.VERSION_CODES.R)
-    public static String takeScreenshot(Context context) {
+    public static CompletableFuture<Screenshot> takeScreenshotAsync(Context context, DictateConfig config) {
         if (!isAccessibilityServiceEnabled(context, DictateAccessibilityService.class)) {
-            return "SERVICE_DISABLED";
+            return CompletableFuture.completedFuture(new Screenshot("SERVICE_DISABLED", -1));
         }
 
         DictateAccessibilityService service = DictateAccessibilityService.getInstance();
         if (service == null) {
             Log.e("Dictate", "Accessibility service is enabled but not bound.");
-            return "SERVICE_NOT_BOUND";
+            return CompletableFuture.completedFuture(new Screenshot("SERVICE_NOT_BOUND", -1));
         }
 
-        File screenshotFile = new File(context.getCacheDir(), "screenshot.png");
-        CountDownLatch latch = new CountDownLatch(1);
-        final boolean[] success = {false};
+        ScreenshotEncoder encoder = new ScreenshotEncoder(config.getScreenshotFormat(), config.getScreenshotQuality(), config.getScreenshotMaxEdge());
+        File screenshotFile = new File(context.getCacheDir(), "screenshot." + encoder.getExtension());
+        Rect focusedWindow = ScreenshotEncoder.findFocusedWindow(service);
+        CompletableFuture<Screenshot> result = new CompletableFuture<>();
 
-        service.takeScreenshot(context.getDisplay().getDisplayId(), context.getMainExecutor(), new AccessibilityService.TakeScreenshotCallback() {
+        service.takeScreenshot(context.getDisplay().getDisplayId(), screenshotExecutor, new AccessibilityService.TakeScreenshotCallback() {
             @Override
             public void onSuccess(@NonNull AccessibilityService.ScreenshotResult screenshot) {
+                long encodeSpan = PipelineTracer.begin(PipelineTracer.SCREENSHOT_ENCODE);
+                ScreenshotEncoder.Result encoded = null;
                 try (FileOutputStream fos = new FileOutputStream(screenshotFile)) {
-                    Bitmap bitmap = Bitmap.wrapHardwareBuffer(screenshot.getHardwareBuffer(), screenshot.getColorSpace());
-                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
-                    success[0] = true;
-                } catch (IOException e) {
+                    encoded = encoder.encode(screenshot, focusedWindow);
+                    if (encoded != null) fos.write(encoded.bytes);
+                } catch (IOException | RuntimeException e) {
                     e.printStackTrace();
+                    encoded = null;
                 }
-                latch.countDown();
+                PipelineTracer.end(encodeSpan);
+                result.complete(encoded != null ? new Screenshot(screenshotFile.getAbsolutePath(), encoded.encodeMillis) : new Screenshot("FAILED", -1));
             }
 
             @Override
             public void onFailure(int errorCode) {
                 Log.e("Dictate", "Screenshot failed with error code: " + errorCode);
-                latch.countDown();
+                result.complete(new Screenshot("FAILED", -1));
             }
         });
-
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        if (success[0]) {
-            return screenshotFile.getAbsolutePath();
-        } else {
-            return "FAILED";
-        }
+        return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package net.devemperor.dictate;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records how long the stages of the dictation pipeline take, from stopping the recorder to the last
+ * committed character. Spans are stored with monotonic timestamps in a preallocated ring buffer, so
+ * recording them doesn't allocate, and are mirrored as android.os.Trace sections for Perfetto/systrace.
+ * The buffer can be exported as Chrome trace JSON, which Perfetto and chrome://tracing can open.
+ * When tracing is disabled {@link #begin} only reads a volatile flag.
+ */
+public final class PipelineTracer {
+
+    public static final String RECORDER_STOP = "recorder stop";
+    public static final String FILE_FINALIZE = "file finalize";
+    public static final String AUDIO_DURATION = "getAudioDuration";
+    public static final String CLIENT_BUILD = "client build";
+    public static final String UPLOAD = "upload";
+    public static final String SERVER_WAIT = "server wait";
+    public static final String JSON_PARSE = "JSON parse";
+    public static final String SCREENSHOT_ENCODE = "screenshot encode";
+    public static final String REWORDING = "rewording";
+    public static final String OUTPUT = "output";
+
+    private static final int CAPACITY = 1024;  // has to be a power of two
+    private static final int MASK = CAPACITY - 1;
+
+    private static volatile boolean enabled = false;
+
+    private static final String[] names = new String[CAPACITY];
+    private static final long[] sequences = new long[CAPACITY];
+    private static final long[] startNanos = new long[CAPACITY];
+    private static final long[] endNanos = new long[CAPACITY];
+    private static final int[] threadIds = new int[CAPACITY];
+    private static long nextSequence = 1;  // guarded by the class, 0 marks an empty slot
+
+    private PipelineTracer() { }
+
+    public static void setEnabled(boolean enabled) {
+        PipelineTracer.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a span, it may be ended on another thread
+     *
+     * @param stage One of the stage constants, the string is stored as it is
+     * @return The token to pass to {@link #end}, 0 if tracing is disabled
+     */
+    public static long begin(String stage) {
+        if (!enabled) return 0;
+        long sequence;
+        synchronized (PipelineTracer.class) {
+            sequence = nextSequence++;
+            int slot = (int) (sequence & MASK);
+            sequences[slot] = sequence;
+            names[slot] = stage;
+            threadIds[slot] = Process.myTid();
+            startNanos[slot] = System.nanoTime();
+            endNanos[slot] = 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) Trace.beginAsyncSection(stage, (int) sequence);
+        return sequence;
+    }
+
+    /**
+     * Ends the span, does nothing if the token is 0 or the span was already overwritten
+     */
+    public static void end(long token) {
+        if (token == 0) return;
+        long now = System.nanoTime();
+        String stage;
+        synchronized (PipelineTracer.class) {
+            int slot = (int) (token & MASK);
+            if (sequences[slot] != token || endNanos[slot] != 0) return;
+            endNanos[slot] = now;
+            stage = names[slot];
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) Trace.endAsyncSection(stage, (int) token);
+    }
+
+    public static boolean isEmpty() {
+        synchronized (PipelineTracer.class) {
+            return sequences[(int) ((nextSequence - 1) & MASK)] == 0;
+        }
+    }
+
+    public static void clear() {
+        synchronized (PipelineTracer.class) {
+            for (int i = 0; i < CAPACITY; i++) sequences[i] = 0;
+        }
+    }
+
+    /**
+     * Writes all finished spans in the Chrome trace event format, the stream is not closed
+     *
+     * @return The number of written spans
+     */
+    public static int writeChromeTrace(OutputStream out) throws IOException {
+        // copy first, so that the pipeline isn't blocked while writing
+        String[] copiedNames = new String[CAPACITY];
+        long[] copiedStarts = new long[CAPACITY];
+        long[] copiedEnds = new long[CAPACITY];
+        int[] copiedThreads = new int[CAPACITY];
+        long first;
+        synchronized (PipelineTracer.class) {
+            first = Math.max(1, nextSequence - CAPACITY);
+            for (long sequence = first; sequence < nextSequence; sequence++) {
+                int slot = (int) (sequence & MASK);
+                int index = (int) (sequence - first);
+                if (sequences[slot] != sequence) continue;
+                copiedNames[index] = names[slot];
+                copiedStarts[index] = startNanos[slot];
+                copiedEnds[index] = endNanos[slot];
+                copiedThreads[index] = threadIds[slot];
+            }
+        }
+
+        int written = 0;
+        int pid = Process.myPid();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.beginObject();
+        writer.name("displayTimeUnit").value("ms");
+        writer.name("traceEvents").beginArray();
+        for (int i = 0; i < CAPACITY; i++) {
+            if (copiedNames[i] == null || copiedEnds[i] == 0) continue;  // empty slot or still running
+            writer.beginObject();
+            writer.name("name").value(copiedNames[i]);
+            writer.name("cat").value("dictate");
+            writer.name("ph").value("X");
+            writer.name("ts").value(copiedStarts[i] / 1000.0);  // microseconds
+            writer.name("dur").value((copiedEnds[i] - copiedStarts[i]) / 1000.0);
+            writer.name("pid").value(pid);
+            writer.name("tid").value(copiedThreads[i]);
+            writer.endObject();
+            written++;
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+        return written;
+    }
+}
@@ -0,0 +1,137 @@
+package net.devemperor.dictate.api;
+
+import com.openai.core.RequestOptions;
+import com.openai.core.Timeout;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes the timeouts of a single request from its size and an exponentially weighted moving average of what the
+ * provider needed before. Connecting and writing only have to cover network stalls and fail fast, so OkHttp can retry,
+ * while the read timeout has to cover the time the server needs before it answers. Requests which failed after waiting
+ * longer than expected (e.g. because they hit the read timeout) raise the average as well, otherwise a provider which
+ * needs more than the timeout would never get a longer one.
+ */
+public class AdaptiveTimeouts {
+
+    private static final double ALPHA = 0.2;  // weight of the newest sample
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration WRITE_TIMEOUT = Duration.ofSeconds(15);  // per write, so only a stalled upload hits it
+    private static final long MIN_UPLOAD_BYTES_PER_SECOND = 32 * 1024;
+
+    // transcription: milliseconds of processing per second of audio, plus a fixed overhead
+    private static final double DEFAULT_MS_PER_AUDIO_SECOND = 400;
+    static final long TRANSCRIPTION_OVERHEAD_MS = 2_000;
+    private static final long MIN_TRANSCRIPTION_READ_MS = 10_000;
+    private static final long MAX_TRANSCRIPTION_READ_MS = 300_000;
+
+    // rewording: milliseconds until the first byte
+    private static final double DEFAULT_REWORDING_MS = 4_000;
+    private static final long MIN_REWORDING_READ_MS = 20_000;
+    private static final long MAX_REWORDING_READ_MS = 120_000;
+    private static final long MAX_STREAMING_REQUEST_MS = 300_000;
+
+    private static final double SAFETY_FACTOR = 3;
+
+    private static final ConcurrentHashMap<String, Double> averages = new ConcurrentHashMap<>();
+
+    /**
+     * @param audioSeconds The duration of the recording
+     * @param bytes The size of the uploaded file
+     */
+    public static RequestOptions forTranscription(String apiHost, String model, long audioSeconds, long bytes) {
+        double msPerSecond = averages.getOrDefault("transcription|" + apiHost + "|" + model, DEFAULT_MS_PER_AUDIO_SECOND);
+        long expected = TRANSCRIPTION_OVERHEAD_MS + Math.round(msPerSecond * Math.max(1, audioSeconds));
+        long read = clamp(Math.round(expected * SAFETY_FACTOR), MIN_TRANSCRIPTION_READ_MS, MAX_TRANSCRIPTION_READ_MS);
+        long upload = 1000 * bytes / MIN_UPLOAD_BYTES_PER_SECOND;
+        return build(read, CONNECT_TIMEOUT.toMillis() + upload + read);
+    }
+
+    /**
+     * @param latencyMillis The time from sending the request until the response headers arrived
+     * @param uploadMillis The part of it spent on sending the file, which is covered by the upload allowance
+     */
+    public static void recordTranscription(String apiHost, String model, long audioSeconds, long latencyMillis, long uploadMillis) {
+        if (latencyMillis < 0) return;
+        averages.merge("transcription|" + apiHost + "|" + model, transcriptionSample(audioSeconds, latencyMillis, uploadMillis), AdaptiveTimeouts::blend);
+    }
+
+    /**
+     * Records a transcription which failed after its file was sent, e.g. with a read timeout. The average only grows
+     * if the server already waited longer than expected.
+     *
+     * @param elapsedMillis The time from sending the request until it failed
+     */
+    public static void recordTranscriptionFailure(String apiHost, String model, long audioSeconds, long elapsedMillis, long uploadMillis) {
+        raise("transcription|" + apiHost + "|" + model, DEFAULT_MS_PER_AUDIO_SECOND, transcriptionSample(audioSeconds, elapsedMillis, uploadMillis));
+    }
+
+    private static double transcriptionSample(long audioSeconds, long millis, long uploadMillis) {
+        return Math.max(0, millis - Math.max(0, uploadMillis) - TRANSCRIPTION_OVERHEAD_MS) / (double) Math.max(1, audioSeconds);
+    }
+
+    /**
+     * @param streaming When streaming, the read timeout is the longest pause between two chunks, so the whole
+     *                  request may take longer
+     */
+    public static RequestOptions forRewording(String apiHost, String model, boolean streaming) {
+        long read = rewordingReadTimeout(apiHost, model).toMillis();
+        return build(read, streaming ? MAX_STREAMING_REQUEST_MS : CONNECT_TIMEOUT.toMillis() + read);
+    }
+
+    /**
+     * @return The read timeout of a rewording, for requests which are not sent through the SDK
+     */
+    public static Duration rewordingReadTimeout(String apiHost, String model) {
+        double expected = averages.getOrDefault("rewording|" + apiHost + "|" + model, DEFAULT_REWORDING_MS);
+        return Duration.ofMillis(clamp(Math.round(expected * SAFETY_FACTOR), MIN_REWORDING_READ_MS, MAX_REWORDING_READ_MS));
+    }
+
+    /**
+     * @param ttfbMillis The time until the first byte of the answer arrived
+     */
+    public static void recordRewording(String apiHost, String model, long ttfbMillis) {
+        if (ttfbMillis < 0) return;
+        averages.merge("rewording|" + apiHost + "|" + model, (double) ttfbMillis, AdaptiveTimeouts::blend);
+    }
+
+    /**
+     * Records a rewording which failed before its first byte arrived, the average only grows
+     *
+     * @param elapsedMillis The time from sending the request until it failed
+     */
+    public static void recordRewordingFailure(String apiHost, String model, long elapsedMillis) {
+        raise("rewording|" + apiHost + "|" + model, DEFAULT_REWORDING_MS, elapsedMillis);
+    }
+
+    private static double blend(double average, double sample) {
+        return average + ALPHA * (sample - average);
+    }
+
+    /**
+     * A failed request only tells that the answer would have taken at least that long
+     */
+    private static void raise(String key, double defaultAverage, double sample) {
+        averages.compute(key, (k, average) -> {
+            double current = average != null ? average : defaultAverage;
+            return sample > current ? blend(current, sample) : current;
+        });
+    }
+
+    private static RequestOptions build(long readMillis, long requestMillis) {
+        return RequestOptions.builder()
+                .timeout(Timeout.builder()
+                        .connect(CONNECT_TIMEOUT)
+                        .write(WRITE_TIMEOUT)
+                        .read(Duration.ofMillis(readMillis))
+                        .request(Duration.ofMillis(requestMillis))
+                        .build())
+                .build();
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
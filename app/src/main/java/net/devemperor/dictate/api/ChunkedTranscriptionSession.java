@@ -0,0 +1,102 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.devemperor.dictate.core.DictateInputMethodService;
+import net.devemperor.dictate.usage.UsageDatabaseHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Transcribes the segments of a running recording in the background as soon as they are closed.
+ * Segments are processed one after another in recording order, each one gets the style prompt followed by the end
+ * of the previous transcript as prompt so that the text stays consistent across the cuts.
+ */
+public class ChunkedTranscriptionSession {
+
+    private static final String TAG = "ChunkedTranscription";
+    private static final int PROMPT_TAIL_CHARS = 200;
+
+    private final Context context;
+    private final UsageDatabaseHelper usageDb;
+    private final String language;
+    private final String stylePrompt;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<String> results = new ArrayList<>();
+    private volatile Exception error;
+
+    public ChunkedTranscriptionSession(Context context, UsageDatabaseHelper usageDb, String language, String stylePrompt) {
+        this.context = context.getApplicationContext();
+        this.usageDb = usageDb;
+        this.language = language;
+        this.stylePrompt = stylePrompt;
+    }
+
+    /**
+     * Queues a closed segment for transcription, can be called from any thread
+     */
+    public void submit(File segment, int index) {
+        executor.execute(() -> {
+            if (error != null) return;  // an earlier segment failed, the whole recording will be sent instead
+            try {
+                String prompt = results.isEmpty() ? stylePrompt : withTail(stylePrompt, results.get(results.size() - 1));
+                String text = DictateInputMethodService.transcribeAudioFile(context, segment, usageDb, language, prompt);
+                results.add(text);
+                Log.d(TAG, "Segment " + index + " transcribed");
+            } catch (Exception e) {
+                Log.e(TAG, "Transcription of segment " + index + " failed", e);
+                error = e;
+            } finally {
+                segment.delete();
+            }
+        });
+    }
+
+    /**
+     * Waits for the remaining segments (usually only the tail) and stitches the results in order.
+     * Has to be called after the recording was stopped and all segments were submitted.
+     *
+     * @return The transcript of the whole recording, null if no segment contained text
+     * @throws TimeoutException if the segments were not transcribed in time
+     * @throws Exception if a segment could not be transcribed
+     */
+    public String awaitResult(long timeoutSeconds) throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+            throw new TimeoutException("Timeout while waiting for segment transcriptions");
+        }
+        if (error != null) throw error;
+
+        StringBuilder transcript = new StringBuilder();
+        for (String text : results) {
+            if (text.isEmpty()) continue;
+            if (transcript.length() > 0) transcript.append(' ');
+            transcript.append(text);
+        }
+        return transcript.length() > 0 ? transcript.toString() : null;  // the whole recording is sent instead
+    }
+
+    public void cancel() {
+        executor.shutdownNow();
+    }
+
+    private static String withTail(String stylePrompt, String previous) {
+        String tail = tail(previous);
+        if (stylePrompt == null || stylePrompt.isEmpty()) return tail;
+        return tail.isEmpty() ? stylePrompt : stylePrompt + " " + tail;
+    }
+
+    private static String tail(String text) {
+        if (text.length() <= PROMPT_TAIL_CHARS) return text;
+        int start = text.indexOf(' ', text.length() - PROMPT_TAIL_CHARS);  // don't start in the middle of a word
+        return text.substring(start < 0 ? text.length() - PROMPT_TAIL_CHARS : start + 1);
+    }
+}
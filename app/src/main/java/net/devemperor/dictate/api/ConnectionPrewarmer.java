@@ -0,0 +1,117 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.devemperor.dictate.DictateConfig;
+import net.devemperor.dictate.usage.UsageEvent;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Opens the connections to the configured transcription and rewording hosts ahead of time (DNS lookup,
+ * TCP/TLS handshake and HTTP/2 session if the server supports it), so that the socket is already hot in
+ * the pooled client when the user presses send.
+ */
+public class ConnectionPrewarmer {
+
+    private static final String TAG = "ConnectionPrewarmer";
+
+    // OkHttp keeps idle connections for 5 minutes, so a warm-up is valid a bit shorter than that
+    private static final long WARM_WINDOW_MS = 4 * 60 * 1000;
+    private static final Duration WARM_UP_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final Map<String, Long> warmedAt = new ConcurrentHashMap<>();
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private Future<?> pending;
+
+    public ConnectionPrewarmer(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Starts warming up the transcription (and, if enabled, the rewording) host in the background.
+     * Hosts that were warmed up recently are skipped.
+     */
+    public synchronized void prewarm() {
+        if (pending != null && !pending.isDone()) return;
+
+        pending = executor.submit(() -> {
+            warm("transcription");
+            if (DictateConfig.get(context).isRewordingEnabled()) warm("rewording");
+        });
+    }
+
+    /**
+     * Cancels a running warm-up, e.g. because the keyboard was closed
+     */
+    public synchronized void cancel() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void warm(String purpose) {
+        DictateConfig config = DictateConfig.get(context);
+        DictateConfig.ApiConfig api = purpose.equals("transcription") ? config.getTranscription() : config.getRewording();
+        String apiHost = api.getApiHost();
+
+        Long lastWarmup = warmedAt.get(apiHost);
+        if (lastWarmup != null && SystemClock.elapsedRealtime() - lastWarmup < WARM_WINDOW_MS) return;
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            String host = Uri.parse(apiHost).getHost();
+            if (host == null) return;
+            InetAddress.getAllByName(host);  // fills the DNS cache
+            if (Thread.currentThread().isInterrupted()) return;
+
+            // a HEAD request opens the TLS connection inside the pooled client, the status doesn't matter
+            boolean connected = OpenAIClientPool.getInstance(context).warmUp(api.getProvider(), apiHost, api.getApiKey(), config.getProxyHost(),
+                    Duration.ofSeconds(120), WARM_UP_TIMEOUT);
+            if (!connected) return;
+        } catch (Exception e) {
+            Log.w(TAG, "Warm-up of " + apiHost + " failed", e);
+            return;
+        }
+
+        long duration = SystemClock.elapsedRealtime() - start;
+        warmedAt.put(apiHost, SystemClock.elapsedRealtime());
+        Log.d(TAG, "Warmed up " + purpose + " host " + apiHost + " in " + duration + " ms");
+    }
+
+    /**
+     * Has to be called right before a real request is sent to the given host. The result is stored with the
+     * usage event, so the usage screen can compare the time to the first byte of warm and cold requests.
+     *
+     * @return {@link UsageEvent#CONNECTION_WARM} if the host was warmed up or answered within the last minutes,
+     *         otherwise {@link UsageEvent#CONNECTION_COLD}
+     */
+    public static int onRequestStarted(String apiHost) {
+        Long lastUse = warmedAt.get(apiHost);
+        return lastUse != null && SystemClock.elapsedRealtime() - lastUse < WARM_WINDOW_MS ? UsageEvent.CONNECTION_WARM : UsageEvent.CONNECTION_COLD;
+    }
+
+    /**
+     * Has to be called when a real request to the host got an answer, its connection stays open for the next one
+     */
+    public static void onConnected(String apiHost) {
+        warmedAt.put(apiHost, SystemClock.elapsedRealtime());
+    }
+}
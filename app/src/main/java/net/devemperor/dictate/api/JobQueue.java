@@ -0,0 +1,269 @@
+package net.devemperor.dictate.api;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import net.devemperor.dictate.R;
+import net.devemperor.dictate.core.DictateInputMethodService;
+import net.devemperor.dictate.rewording.PromptModel;
+import net.devemperor.dictate.usage.UsageDatabaseHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps transcriptions and rewordings which failed because of the network and retries them with exponential
+ * backoff and jitter. The jobs are stored in SQLite and the clips in their own files, a {@link JobRetryService}
+ * continues the queue with a network constraint after the process was killed or the device rebooted.
+ * Results go to the input field which started the request if it is still focused, otherwise to the clipboard
+ * and a notification.
+ */
+public class JobQueue {
+
+    /**
+     * Receives the results of finished jobs, usually the keyboard while it is shown
+     */
+    public interface ResultTarget {
+        /**
+         * Called on the main thread
+         *
+         * @return Whether the text was inserted, otherwise it is put on the clipboard
+         */
+        boolean deliver(QueuedJob job, String text);
+    }
+
+    private static final String TAG = "JobQueue";
+
+    private static final long BASE_DELAY_MS = 15_000;
+    private static final long MAX_DELAY_MS = 30 * 60 * 1000;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long FAILED_RETENTION_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int SCHEDULER_JOB_ID = 0x0d1c7a7e;
+    private static final String CHANNEL_ID = "net.devemperor.dictate.jobs";
+
+    private static JobQueue instance;
+
+    private final Context context;
+    private final JobQueueDatabaseHelper db;
+    private final File jobDir;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile ResultTarget resultTarget;
+    private ScheduledFuture<?> scheduledRun;  // only used on the executor
+
+    private JobQueue(Context context) {
+        this.context = context;
+        db = new JobQueueDatabaseHelper(context);
+        jobDir = new File(context.getFilesDir(), "jobs");  // the cache dir may be cleared while jobs are waiting
+        executor.execute(() -> {
+            db.resetRunning();
+            db.deleteFinished(System.currentTimeMillis() - FAILED_RETENTION_MS);
+            deleteOrphanedClips();
+            runDue();
+        });
+    }
+
+    public static synchronized JobQueue getInstance(Context context) {
+        if (instance == null) instance = new JobQueue(context.getApplicationContext());
+        return instance;
+    }
+
+    public void setResultTarget(ResultTarget target) {
+        resultTarget = target;
+    }
+
+    /**
+     * @return Whether the request failed because of a missing or bad connection, only then it is worth queueing it.
+     * Other socket errors like "Socket closed" are caused by cancelling the request and don't count.
+     */
+    public static boolean isNetworkFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnknownHostException || cause instanceof ConnectException
+                    || cause instanceof NoRouteToHostException || cause instanceof SocketTimeoutException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies the recording under a unique name and queues its transcription
+     *
+     * @param promptText A prompt to apply to the transcript afterwards, or null
+     */
+    public void enqueueTranscription(File recording, String language, String stylePrompt, String promptText,
+                                     String targetPackage, int targetFieldId) throws IOException {
+        if (!jobDir.exists() && !jobDir.mkdirs()) throw new IOException("Could not create " + jobDir);
+        String name = recording.getName();
+        File clip = new File(jobDir, "job_" + UUID.randomUUID() + name.substring(Math.max(0, name.lastIndexOf('.'))));
+        Files.copy(recording.toPath(), clip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        executor.execute(() -> {
+            db.insert(QueuedJob.TYPE_TRANSCRIPTION, clip.getAbsolutePath(), null, promptText, language, stylePrompt, targetPackage, targetFieldId);
+            Log.d(TAG, "Queued transcription of " + clip.getName());
+            reschedule(BASE_DELAY_MS);
+        });
+    }
+
+    public void enqueueRewording(String inputText, String promptText, String targetPackage, int targetFieldId) {
+        executor.execute(() -> {
+            db.insert(QueuedJob.TYPE_REWORDING, null, inputText, promptText, null, null, targetPackage, targetFieldId);
+            Log.d(TAG, "Queued rewording");
+            reschedule(BASE_DELAY_MS);
+        });
+    }
+
+    /**
+     * Runs all due jobs in the background
+     *
+     * @param onDone Called on the queue's thread when the due jobs were attempted, may be null
+     */
+    public void processDue(Runnable onDone) {
+        executor.execute(() -> {
+            runDue();
+            if (onDone != null) onDone.run();
+        });
+    }
+
+    private void runDue() {
+        for (QueuedJob job : db.getDue(System.currentTimeMillis())) {
+            if (Thread.currentThread().isInterrupted()) break;
+            run(job);
+        }
+        reschedule(-1);
+    }
+
+    private void run(QueuedJob job) {
+        db.setState(job.getId(), QueuedJob.STATE_RUNNING);
+        UsageDatabaseHelper usageDb = UsageDatabaseHelper.getInstance(context);
+        try {
+            String text;
+            if (job.getType() == QueuedJob.TYPE_TRANSCRIPTION) {
+                text = DictateInputMethodService.transcribeAudioFile(context, new File(job.getAudioFile()), usageDb, job.getLanguage(), job.getStylePrompt());
+                if (job.getPromptText() != null) {
+                    text = DictateInputMethodService.performRewording(context, new PromptModel(-1, Integer.MIN_VALUE, "", job.getPromptText(), false), text, usageDb);
+                }
+            } else {
+                text = DictateInputMethodService.performRewording(context, new PromptModel(-1, Integer.MIN_VALUE, "", job.getPromptText(), false), job.getInputText(), usageDb);
+            }
+
+            db.setState(job.getId(), QueuedJob.STATE_DONE);
+            if (job.getAudioFile() != null) new File(job.getAudioFile()).delete();
+            Log.d(TAG, "Job " + job.getId() + " done after " + (job.getAttempts() + 1) + " attempts");
+            String result = text;
+            mainHandler.post(() -> deliver(job, result));
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted() || e instanceof InterruptedException) {
+                // cancelled, not failed: the job is tried again later without counting an attempt
+                db.setState(job.getId(), QueuedJob.STATE_PENDING);
+                Thread.currentThread().interrupt();
+                Log.d(TAG, "Job " + job.getId() + " was interrupted");
+                return;
+            }
+            int attempts = job.getAttempts() + 1;
+            if (isNetworkFailure(e) && attempts < MAX_ATTEMPTS) {
+                long delay = backoff(attempts);
+                db.scheduleRetry(job.getId(), attempts, System.currentTimeMillis() + delay, e.getMessage());
+                Log.d(TAG, "Job " + job.getId() + " failed, retrying in " + delay / 1000 + " s", e);
+            } else {
+                db.setState(job.getId(), QueuedJob.STATE_FAILED);
+                Log.e(TAG, "Job " + job.getId() + " failed permanently", e);
+                notify(job, context.getString(R.string.dictate_job_failed_title), context.getString(R.string.dictate_job_failed_text));
+            }
+        }
+    }
+
+    /**
+     * @return The delay before the given attempt, doubling per attempt with "equal jitter", so retries of
+     * several jobs don't hit the server at the same moment
+     */
+    static long backoff(int attempts) {
+        long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempts - 1, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Schedules the next run for the earliest pending job, in this process and with the JobScheduler
+     * in case the process is killed before
+     *
+     * @param minDelay A delay to use at least, -1 for none
+     */
+    private void reschedule(long minDelay) {
+        if (scheduledRun != null) scheduledRun.cancel(false);
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        long next = db.getNextAttempt();
+        if (next < 0) {
+            scheduler.cancel(SCHEDULER_JOB_ID);
+            return;
+        }
+        long delay = Math.max(Math.max(0, minDelay), next - System.currentTimeMillis());
+        scheduledRun = executor.schedule(this::runDue, delay, TimeUnit.MILLISECONDS);
+        scheduler.schedule(new JobInfo.Builder(SCHEDULER_JOB_ID, new ComponentName(context, JobRetryService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delay)
+                .setPersisted(true)
+                .build());
+    }
+
+    private void deliver(QueuedJob job, String text) {
+        ResultTarget target = resultTarget;
+        if (target != null && target.deliver(job, text)) return;
+
+        ClipboardManager clipboard = (ClipboardManager) context.getSystemService(Context.CLIPBOARD_SERVICE);
+        clipboard.setPrimaryClip(ClipData.newPlainText("Dictate", text));
+        notify(job, context.getString(R.string.dictate_job_done_title), text);
+    }
+
+    private void notify(QueuedJob job, String title, String text) {
+        NotificationManager manager = context.getSystemService(NotificationManager.class);
+        manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, context.getString(R.string.dictate_job_channel_name), NotificationManager.IMPORTANCE_DEFAULT));
+
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        if (!notificationManager.areNotificationsEnabled()) return;
+        try {
+            notificationManager.notify((int) job.getId(), new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_baseline_mic_24)
+                    .setContentTitle(title)
+                    .setContentText(text)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(text))
+                    .setAutoCancel(true)
+                    .build());
+        } catch (SecurityException e) {  // notification permission revoked in between
+            Log.w(TAG, "Could not show notification", e);
+        }
+    }
+
+    private void deleteOrphanedClips() {
+        File[] clips = jobDir.listFiles();
+        if (clips == null) return;
+        Set<String> referenced = new HashSet<>(db.getAudioFiles());
+        for (File clip : clips) {
+            if (!referenced.contains(clip.getAbsolutePath())) clip.delete();
+        }
+    }
+}
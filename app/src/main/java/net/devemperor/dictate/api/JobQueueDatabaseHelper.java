@@ -0,0 +1,119 @@
+package net.devemperor.dictate.api;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the jobs of the {@link JobQueue}, so that they survive the process being killed
+ */
+class JobQueueDatabaseHelper extends SQLiteOpenHelper {
+
+    private static final String COLUMNS = "ID, TYPE, AUDIO_FILE, INPUT_TEXT, PROMPT_TEXT, LANGUAGE, STYLE_PROMPT, TARGET_PACKAGE, TARGET_FIELD_ID, ATTEMPTS";
+
+    JobQueueDatabaseHelper(Context context) {
+        super(context, "jobs.db", null, 1);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE JOBS (ID INTEGER PRIMARY KEY, TYPE INTEGER, AUDIO_FILE TEXT, INPUT_TEXT TEXT, PROMPT_TEXT TEXT, LANGUAGE TEXT, "
+                + "STYLE_PROMPT TEXT, TARGET_PACKAGE TEXT, TARGET_FIELD_ID INTEGER, STATE INTEGER, ATTEMPTS INTEGER DEFAULT 0, "
+                + "NEXT_ATTEMPT LONG, LAST_ERROR TEXT, CREATED LONG)");
+        db.execSQL("CREATE INDEX JOBS_DUE ON JOBS (STATE, NEXT_ATTEMPT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) { }
+
+    long insert(int type, String audioFile, String inputText, String promptText, String language, String stylePrompt, String targetPackage, int targetFieldId) {
+        ContentValues cv = new ContentValues();
+        cv.put("TYPE", type);
+        cv.put("AUDIO_FILE", audioFile);
+        cv.put("INPUT_TEXT", inputText);
+        cv.put("PROMPT_TEXT", promptText);
+        cv.put("LANGUAGE", language);
+        cv.put("STYLE_PROMPT", stylePrompt);
+        cv.put("TARGET_PACKAGE", targetPackage);
+        cv.put("TARGET_FIELD_ID", targetFieldId);
+        cv.put("STATE", QueuedJob.STATE_PENDING);
+        cv.put("NEXT_ATTEMPT", System.currentTimeMillis());
+        cv.put("CREATED", System.currentTimeMillis());
+        return getWritableDatabase().insert("JOBS", null, cv);
+    }
+
+    /**
+     * @return The pending jobs whose next attempt is due, oldest first
+     */
+    List<QueuedJob> getDue(long now) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMNS + " FROM JOBS WHERE STATE = ? AND NEXT_ATTEMPT <= ? ORDER BY ID",
+                new String[]{String.valueOf(QueuedJob.STATE_PENDING), String.valueOf(now)});
+        List<QueuedJob> jobs = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            jobs.add(new QueuedJob(cursor.getLong(0), cursor.getInt(1), cursor.getString(2), cursor.getString(3), cursor.getString(4),
+                    cursor.getString(5), cursor.getString(6), cursor.getString(7), cursor.getInt(8), cursor.getInt(9)));
+        }
+        cursor.close();
+        return jobs;
+    }
+
+    /**
+     * @return The time of the next attempt of a pending job, -1 if there is none
+     */
+    long getNextAttempt() {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT MIN(NEXT_ATTEMPT) FROM JOBS WHERE STATE = ?",
+                new String[]{String.valueOf(QueuedJob.STATE_PENDING)});
+        long next = cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        cursor.close();
+        return next;
+    }
+
+    void setState(long id, int state) {
+        ContentValues cv = new ContentValues();
+        cv.put("STATE", state);
+        getWritableDatabase().update("JOBS", cv, "ID = ?", new String[]{String.valueOf(id)});
+    }
+
+    void scheduleRetry(long id, int attempts, long nextAttempt, String error) {
+        ContentValues cv = new ContentValues();
+        cv.put("STATE", QueuedJob.STATE_PENDING);
+        cv.put("ATTEMPTS", attempts);
+        cv.put("NEXT_ATTEMPT", nextAttempt);
+        cv.put("LAST_ERROR", error);
+        getWritableDatabase().update("JOBS", cv, "ID = ?", new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * Jobs which were running when the process died are attempted again
+     */
+    void resetRunning() {
+        ContentValues cv = new ContentValues();
+        cv.put("STATE", QueuedJob.STATE_PENDING);
+        getWritableDatabase().update("JOBS", cv, "STATE = ?", new String[]{String.valueOf(QueuedJob.STATE_RUNNING)});
+    }
+
+    /**
+     * Removes finished jobs and failed jobs older than the given time
+     */
+    void deleteFinished(long failedBefore) {
+        getWritableDatabase().delete("JOBS", "STATE = ? OR (STATE = ? AND CREATED < ?)",
+                new String[]{String.valueOf(QueuedJob.STATE_DONE), String.valueOf(QueuedJob.STATE_FAILED), String.valueOf(failedBefore)});
+    }
+
+    /**
+     * @return The audio files which are still referenced by a job
+     */
+    List<String> getAudioFiles() {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT AUDIO_FILE FROM JOBS WHERE AUDIO_FILE IS NOT NULL", null);
+        List<String> files = new ArrayList<>();
+        while (cursor.moveToNext()) files.add(cursor.getString(0));
+        cursor.close();
+        return files;
+    }
+}
@@ -0,0 +1,23 @@
+package net.devemperor.dictate.api;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+
+/**
+ * Started by the JobScheduler when a queued job is due and a network is available, also after the
+ * process was killed or the device rebooted
+ */
+public class JobRetryService extends JobService {
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        // the queue schedules its next run itself, so the job is never rescheduled here
+        JobQueue.getInstance(this).processDue(() -> jobFinished(params, false));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
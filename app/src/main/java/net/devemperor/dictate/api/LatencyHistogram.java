@@ -0,0 +1,69 @@
+package net.devemperor.dictate.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Distribution of the time to the first byte of one transcription provider and model. A transcription takes longer
+ * the longer the recording is, so like in {@link AdaptiveTimeouts} the time is stored per second of audio after a fixed
+ * overhead, in logarithmic buckets from 10 ms to about 6.5 s, and scaled back to the length of the clip in question.
+ * Old samples lose weight over time, so the percentiles follow a provider that becomes slower or faster.
+ */
+public class LatencyHistogram {
+
+    private static final double FIRST_BUCKET_MS = 10;
+    private static final double BUCKET_FACTOR = 1.25;
+    private static final int BUCKETS = 30;
+    private static final int MAX_SAMPLES = 500;  // all counts are halved when reached
+    private static final int MIN_SAMPLES = 10;
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final int[] counts = new int[BUCKETS];
+    private int total;
+
+    public static LatencyHistogram of(String apiHost, String model) {
+        return histograms.computeIfAbsent(apiHost + "|" + model, key -> new LatencyHistogram());
+    }
+
+    /**
+     * @param latencyMillis The time from sending the request until the response headers arrived
+     * @param audioSeconds The duration of the transcribed recording
+     */
+    public synchronized void record(long latencyMillis, long audioSeconds) {
+        if (latencyMillis < 0) return;
+        double millis = Math.max(0, latencyMillis - AdaptiveTimeouts.TRANSCRIPTION_OVERHEAD_MS) / (double) Math.max(1, audioSeconds);
+        int bucket = millis <= FIRST_BUCKET_MS ? 0 : (int) Math.ceil(Math.log(millis / FIRST_BUCKET_MS) / Math.log(BUCKET_FACTOR));
+        counts[Math.min(bucket, BUCKETS - 1)]++;
+        if (++total >= MAX_SAMPLES) {
+            total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] /= 2;
+                total += counts[i];
+            }
+        }
+    }
+
+    /**
+     * @param fraction The percentile as fraction, e.g. 0.95
+     * @param audioSeconds The duration of the recording the percentile is needed for
+     * @return The percentile of the time to the first byte for a recording of that length in ms, -1 if there are too few samples
+     */
+    public long percentile(double fraction, long audioSeconds) {
+        long perSecond = percentile(fraction);
+        return perSecond < 0 ? -1 : AdaptiveTimeouts.TRANSCRIPTION_OVERHEAD_MS + perSecond * Math.max(1, audioSeconds);
+    }
+
+    /**
+     * @return The upper bound of the bucket containing the percentile in ms per second of audio, -1 if there are too few samples
+     */
+    private synchronized long percentile(double fraction) {
+        if (total < MIN_SAMPLES) return -1;
+        long needed = (long) Math.ceil(total * fraction);
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            sum += counts[i];
+            if (sum >= needed) return Math.round(FIRST_BUCKET_MS * Math.pow(BUCKET_FACTOR, i));
+        }
+        return Math.round(FIRST_BUCKET_MS * Math.pow(BUCKET_FACTOR, BUCKETS - 1));
+    }
+}
@@ -0,0 +1,222 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.openai.client.OpenAIClient;
+import com.openai.client.OpenAIClientImpl;
+import com.openai.core.ClientOptions;
+import com.openai.core.RequestOptions;
+import com.openai.core.http.HttpClient;
+import com.openai.core.http.HttpMethod;
+import com.openai.core.http.HttpRequest;
+import com.openai.core.http.HttpResponse;
+
+import net.devemperor.dictate.DictateConfig;
+import net.devemperor.dictate.DictateUtils;
+
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Process-wide registry of OpenAI clients. Every built client owns its own OkHttp connection pool and
+ * dispatcher, so reusing them across transcription and rewording requests saves the TCP/TLS handshake.
+ * Clients are keyed by (provider, host, api key, proxy, timeout) and only dropped when one of the
+ * relevant SharedPreferences keys changes.
+ */
+public class OpenAIClientPool {
+
+    private static final String TAG = "OpenAIClientPool";
+
+    // preference keys that influence how a client is built
+    private static final Set<String> RELEVANT_KEYS = new HashSet<>(Arrays.asList(
+            "net.devemperor.dictate.transcription_provider",
+            "net.devemperor.dictate.transcription_api_key",
+            "net.devemperor.dictate.transcription_custom_host",
+            "net.devemperor.dictate.rewording_provider",
+            "net.devemperor.dictate.rewording_api_key",
+            "net.devemperor.dictate.rewording_custom_host",
+            "net.devemperor.dictate.api_key",
+            "net.devemperor.dictate.proxy_enabled",
+            "net.devemperor.dictate.proxy_host"
+    ));
+
+    private static OpenAIClientPool instance;
+
+    private final Map<Key, OpenAIClient> clients = new ConcurrentHashMap<>();
+    private final Map<Key, HttpClient> transports = new ConcurrentHashMap<>();  // the HTTP layer of each client, below the retries
+    private final Map<String, OkHttpClient> httpClients = new ConcurrentHashMap<>();  // by proxy
+    private final OkHttpClient baseHttpClient = new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(120, TimeUnit.SECONDS)
+            .build();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private OpenAIClientPool() {
+    }
+
+    public static OpenAIClientPool getInstance(Context context) {
+        DictateConfig.get(context);  // registers the preference listener which invalidates the pool
+        synchronized (OpenAIClientPool.class) {
+            if (instance == null) instance = new OpenAIClientPool();
+            return instance;
+        }
+    }
+
+    /**
+     * Called by the preference listener of {@link DictateConfig}, drops the cached clients if the key
+     * influences how they are built
+     *
+     * @param key The changed key, null if the preferences were cleared
+     */
+    public static void onPreferenceChanged(String key) {
+        OpenAIClientPool pool;
+        synchronized (OpenAIClientPool.class) {
+            pool = instance;
+        }
+        if (pool != null && (key == null || RELEVANT_KEYS.contains(key))) pool.invalidate();
+    }
+
+    /**
+     * Returns a cached client for the given configuration or builds a new one if none exists yet
+     *
+     * @param provider The provider index (0 = OpenAI, 1 = Groq, 2 = custom server)
+     * @param apiHost The base url of the API
+     * @param apiKey The sanitized API key
+     * @param proxyHost The validated proxy as in {@link DictateConfig#getProxyHost()}, empty for a direct connection
+     * @param timeout The request timeout of the client
+     * @return A ready to use client that shares its connection pool with all previous requests of the same key
+     */
+    public OpenAIClient acquire(int provider, String apiHost, String apiKey, String proxyHost, Duration timeout) {
+        Key key = new Key(provider, apiHost, apiKey, proxyHost, timeout);
+        OpenAIClient client = clients.get(key);
+        if (client != null) {
+            hits.incrementAndGet();
+            return client;
+        }
+
+        synchronized (this) {
+            client = clients.get(key);
+            if (client != null) {
+                hits.incrementAndGet();
+                return client;
+            }
+
+            // same as OpenAIOkHttpClient.builder(), but with the tracing layer between the retries and OkHttp
+            com.openai.client.okhttp.OkHttpClient.Builder httpClientBuilder = com.openai.client.okhttp.OkHttpClient.builder().timeout(timeout);
+            Proxy proxy = DictateUtils.parseProxy(proxyHost);
+            if (proxy != null) httpClientBuilder.proxy(proxy);
+
+            HttpClient transport = new TracingHttpClient(httpClientBuilder.build());
+            client = new OpenAIClientImpl(ClientOptions.builder()
+                    .httpClient(transport)
+                    .apiKey(apiKey)
+                    .baseUrl(apiHost)
+                    .timeout(timeout)
+                    .build());
+            transports.put(key, transport);
+            clients.put(key, client);
+            misses.incrementAndGet();
+            Log.d(TAG, "Built new client for " + apiHost + " (" + clients.size() + " cached)");
+            return client;
+        }
+    }
+
+    /**
+     * Opens a connection to the host in the connection pool of the client {@link #acquire} returns for the same
+     * arguments, with a single unauthenticated HEAD request that is not retried
+     *
+     * @param warmUpTimeout How long the whole request may take
+     * @return Whether the server answered, only then a connection is open in the pool
+     */
+    public boolean warmUp(int provider, String apiHost, String apiKey, String proxyHost, Duration timeout, Duration warmUpTimeout) {
+        acquire(provider, apiHost, apiKey, proxyHost, timeout);
+        HttpClient transport = transports.get(new Key(provider, apiHost, apiKey, proxyHost, timeout));
+        if (transport == null) return false;  // invalidated in the meantime
+
+        HttpRequest request = HttpRequest.builder().method(HttpMethod.HEAD).baseUrl(apiHost).build();
+        try (HttpResponse response = transport.execute(request, RequestOptions.builder().timeout(warmUpTimeout).build())) {
+            Log.d(TAG, "Warm-up of " + apiHost + " answered with " + response.statusCode());  // any status means the connection is open
+            return true;
+        } catch (Exception e) {
+            Log.d(TAG, "Warm-up of " + apiHost + " got no connection: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns a plain OkHttp client for requests the SDK can't stream, all of them share one connection pool
+     *
+     * @param proxyHost The validated proxy, empty for a direct connection
+     */
+    public OkHttpClient acquireHttpClient(String proxyHost) {
+        return httpClients.computeIfAbsent(proxyHost, key -> {
+            Proxy proxy = DictateUtils.parseProxy(key);
+            return baseHttpClient.newBuilder().proxy(proxy != null ? proxy : Proxy.NO_PROXY).build();
+        });
+    }
+
+    /**
+     * Removes all cached clients, so that the next request builds them from the current settings.
+     * The clients are not closed here because a request might still be running on them, OkHttp releases
+     * their idle connections and threads on its own.
+     */
+    public synchronized void invalidate() {
+        clients.clear();
+        transports.clear();
+        httpClients.clear();
+        Log.d(TAG, "Client pool invalidated");
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static final class Key {
+        private final int provider;
+        private final String apiHost;
+        private final String apiKey;
+        private final String proxyHost;
+        private final Duration timeout;
+
+        Key(int provider, String apiHost, String apiKey, String proxyHost, Duration timeout) {
+            this.provider = provider;
+            this.apiHost = apiHost;
+            this.apiKey = apiKey;
+            this.proxyHost = proxyHost;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return provider == other.provider
+                    && apiHost.equals(other.apiHost)
+                    && apiKey.equals(other.apiKey)
+                    && proxyHost.equals(other.proxyHost)
+                    && timeout.equals(other.timeout);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(provider, apiHost, apiKey, proxyHost, timeout);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import net.devemperor.dictate.DictateConfig;
+import net.devemperor.dictate.audio.AudioEncoding;
+import net.devemperor.dictate.audio.AudioFileEncoder;
+import net.devemperor.dictate.audio.PcmConsumer;
+import net.devemperor.dictate.usage.UsageDatabaseHelper;
+import net.devemperor.dictate.usage.UsageEvent;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Pipe;
+
+/**
+ * Uploads a recording to a custom server while it is still being recorded. The request is opened when recording
+ * starts and its multipart body is a chunked stream fed by a FLAC encoder, so when the user presses send most of the
+ * audio is already on the server. Any failure makes {@link #awaitTranscript(long, long)} throw, the caller then sends the
+ * finished recording the normal way. Hosts that reject chunked bodies are not tried again.
+ */
+public class ProgressiveUpload implements PcmConsumer {
+
+    private static final String TAG = "ProgressiveUpload";
+
+    private static final MediaType AUDIO_FLAC = MediaType.get("audio/flac");
+    private static final long MAX_BUFFERED_BYTES = 4 * 1024 * 1024;  // audio the connection is behind before giving up
+    private static final long PIPE_WRITE_TIMEOUT_MS = 50;  // the dispatch thread of the recorder must not stall
+
+    // status codes meaning the server can't take the streamed body at all, not that this request failed
+    private static final Set<Integer> REJECTING_CODES = new HashSet<>(Arrays.asList(400, 411, 415, 501, 505));
+
+    private static final Set<String> rejectingHosts = ConcurrentHashMap.newKeySet();
+
+    private final Context context;
+    private final DictateConfig.ApiConfig api;
+    private final String proxyHost;
+    private final String language;
+    private final String stylePrompt;
+    private final UsageDatabaseHelper usageDb;
+    private final Pipe pipe = new Pipe(MAX_BUFFERED_BYTES);
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    private AudioFileEncoder encoder;
+    private Call call;
+    private int sampleRate;
+    private long capturedSamples;
+    private volatile long uploadedBytes;
+    private volatile long stopTime;
+    private volatile long ttfb = -1;
+    private volatile boolean failed;
+
+    public ProgressiveUpload(Context context, DictateConfig config, UsageDatabaseHelper usageDb, String language, String stylePrompt) {
+        this.context = context.getApplicationContext();
+        this.api = config.getTranscription();
+        this.proxyHost = config.getProxyHost();
+        this.usageDb = usageDb;
+        this.language = language;
+        this.stylePrompt = stylePrompt;
+    }
+
+    /**
+     * @return Whether the recording can be streamed with this configuration, only custom servers are asked
+     * because OpenAI and Groq need the content length of the file
+     */
+    public static boolean isSupported(DictateConfig config) {
+        DictateConfig.ApiConfig api = config.getTranscription();
+        return api.getProvider() == 2 && !rejectingHosts.contains(api.getApiHost());
+    }
+
+    @Override
+    public void onStart(int sampleRate) throws IOException {
+        this.sampleRate = sampleRate;
+        BufferedSink sink = Okio.buffer(pipe.sink());
+        sink.timeout().timeout(PIPE_WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        encoder = new AudioFileEncoder(sink.outputStream(), AudioEncoding.FLAC);
+        encoder.onStart(sampleRate);
+
+        OkHttpClient client = OpenAIClientPool.getInstance(context).acquireHttpClient(proxyHost).newBuilder()
+                .writeTimeout(0, TimeUnit.SECONDS)  // the body waits for the microphone, pauses are allowed
+                .build();
+        call = client.newCall(buildRequest());
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (stopTime > 0) ttfb = (System.nanoTime() - stopTime) / 1_000_000;
+                try (Response r = response) {
+                    String body = r.body() != null ? r.body().string() : "";
+                    if (!r.isSuccessful()) {
+                        if (REJECTING_CODES.contains(r.code())) {
+                            rejectingHosts.add(api.getApiHost());
+                            Log.w(TAG, api.getApiHost() + " rejected the streamed upload (" + r.code() + "), it won't be used again");
+                        }
+                        throw new IOException("HTTP " + r.code() + ": " + body);
+                    }
+                    JsonObject json = JsonParser.parseString(body).getAsJsonObject();
+                    result.complete(json.get("text").getAsString().strip());
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        Log.d(TAG, "Streaming upload to " + api.getApiHost() + " opened");
+    }
+
+    @Override
+    public void onFrame(short[] samples, int count) {
+        if (failed) return;
+        try {
+            encoder.onFrame(samples, count);
+            capturedSamples += count;
+        } catch (IOException | RuntimeException e) {  // the connection is too slow to keep up or the request is gone
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        stopTime = System.nanoTime();
+        try {
+            encoder.onStop();  // closes the stream, which ends the chunked body, and releases the codec
+        } catch (IOException | RuntimeException e) {
+            if (!failed) fail(e);
+        }
+    }
+
+    /**
+     * Waits for the answer of the server, has to be called after the recording was stopped
+     *
+     * @param trimmedSeconds The removed silence in seconds, -1 if the recording was not trimmed
+     * @return The transcript
+     * @throws Exception if the streamed upload failed, then the recording has to be sent again
+     */
+    public String awaitTranscript(long timeoutSeconds, long trimmedSeconds) throws Exception {
+        long audioTime = sampleRate > 0 ? Math.round(capturedSamples / (double) sampleRate) : 0;
+        String text;
+        try {
+            text = result.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            cancel();
+            throw new SocketTimeoutException("timeout");
+        }
+
+        Log.d("DictateAPI", "Received Transcript: " + text);
+        if (trimmedSeconds >= 0) Log.d("DictateAPI", "Silence trimmed before upload: " + trimmedSeconds + " s");
+        usageDb.edit(api.getModel(), audioTime, 0, 0, api.getProvider(), trimmedSeconds);
+        usageDb.logEvent(new UsageEvent(api.getModel(), api.getProvider(), audioTime, 0, 0, uploadedBytes, ttfb,
+                ttfb, UsageEvent.OUTCOME_SUCCESS));  // the user only waits from stop to the answer
+        return text;
+    }
+
+    public void cancel() {
+        failed = true;
+        if (call != null) call.cancel();
+        pipe.cancel();
+    }
+
+    private void fail(Exception e) {
+        Log.w(TAG, "Streamed upload aborted, the recording will be sent after stop", e);
+        cancel();
+        result.completeExceptionally(e);
+    }
+
+    private Request buildRequest() {
+        RequestBody audio = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return AUDIO_FLAC;
+            }
+
+            @Override
+            public long contentLength() {
+                return -1;  // unknown, so OkHttp sends the body with chunked transfer encoding
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return true;  // the audio can't be read twice, a failed request is resent from the file
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                byte[] buffer = new byte[8 * 1024];
+                try (BufferedSource source = Okio.buffer(pipe.source())) {
+                    int count;
+                    while ((count = source.read(buffer)) > 0) {
+                        sink.write(buffer, 0, count);
+                        sink.flush();  // push every block to the server right away
+                        uploadedBytes += count;
+                    }
+                }
+            }
+        };
+
+        MultipartBody.Builder body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("model", api.getModel())
+                .addFormDataPart("temperature", String.valueOf(api.getTemperature()))
+                .addFormDataPart("response_format", "json")
+                .addFormDataPart("file", "audio." + AudioEncoding.FLAC.getExtension(), audio);
+        if (language != null && !language.equals("detect")) body.addFormDataPart("language", language);
+        if (stylePrompt != null && !stylePrompt.isEmpty()) body.addFormDataPart("prompt", stylePrompt);
+
+        String host = api.getApiHost().endsWith("/") ? api.getApiHost() : api.getApiHost() + "/";
+        return new Request.Builder()
+                .url(host + "audio/transcriptions")
+                .header("Authorization", "Bearer " + api.getApiKey())
+                .post(body.build())
+                .build();
+    }
+}
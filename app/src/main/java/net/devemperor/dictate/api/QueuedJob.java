@@ -0,0 +1,87 @@
+package net.devemperor.dictate.api;
+
+/**
+ * A transcription or rewording request which is waiting in the {@link JobQueue} for a working connection
+ */
+public class QueuedJob {
+
+    public static final int TYPE_TRANSCRIPTION = 0;
+    public static final int TYPE_REWORDING = 1;
+
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_DONE = 2;
+    public static final int STATE_FAILED = 3;
+
+    private final long id;
+    private final int type;
+    private final String audioFile;
+    private final String inputText;
+    private final String promptText;
+    private final String language;
+    private final String stylePrompt;
+    private final String targetPackage;
+    private final int targetFieldId;
+    private final int attempts;
+
+    /**
+     * @param audioFile The path of the clip to transcribe, null for rewordings
+     * @param inputText The text to reword, null for transcriptions
+     * @param promptText The rewording prompt, for transcriptions the prompt to apply to the transcript or null
+     * @param targetPackage The app whose input field started the request
+     * @param targetFieldId The id of that input field
+     */
+    public QueuedJob(long id, int type, String audioFile, String inputText, String promptText, String language, String stylePrompt,
+                     String targetPackage, int targetFieldId, int attempts) {
+        this.id = id;
+        this.type = type;
+        this.audioFile = audioFile;
+        this.inputText = inputText;
+        this.promptText = promptText;
+        this.language = language;
+        this.stylePrompt = stylePrompt;
+        this.targetPackage = targetPackage;
+        this.targetFieldId = targetFieldId;
+        this.attempts = attempts;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getAudioFile() {
+        return audioFile;
+    }
+
+    public String getInputText() {
+        return inputText;
+    }
+
+    public String getPromptText() {
+        return promptText;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public String getStylePrompt() {
+        return stylePrompt;
+    }
+
+    public String getTargetPackage() {
+        return targetPackage;
+    }
+
+    public int getTargetFieldId() {
+        return targetFieldId;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
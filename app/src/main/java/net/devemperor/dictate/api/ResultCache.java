@@ -0,0 +1,228 @@
+package net.devemperor.dictate.api;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps results of API requests on disk under a hash of everything that influenced them. Entries are evicted in
+ * LRU order once there are too many or they take too much space, and dropped when they are older than the maximum age.
+ * The most recently used entries are also kept in memory.
+ */
+public class ResultCache {
+
+    private static final String TAG = "ResultCache";
+
+    /**
+     * A cached text together with the time it was stored
+     */
+    private static class Entry {
+        final long created;
+        final String value;
+
+        Entry(long created, String value) {
+            this.created = created;
+            this.value = value;
+        }
+    }
+
+    private final File dir;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final int memoryEntries;
+    private final LinkedHashMap<String, Long> fileSizes = new LinkedHashMap<>(16, 0.75f, true);  // in LRU order
+    private final LinkedHashMap<String, Entry> memory;
+    private long totalBytes;
+    private boolean loaded;
+
+    /**
+     * @param maxAgeMillis The time after which entries are not returned anymore, 0 to keep them until they are evicted
+     * @param memoryEntries How many entries are additionally kept in memory
+     */
+    public ResultCache(File dir, int maxEntries, long maxBytes, long maxAgeMillis, int memoryEntries) {
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.memoryEntries = memoryEntries;
+        memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResultCache.this.memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * @return The cached text, null if there is none or it expired
+     */
+    public synchronized String get(String key) {
+        load();
+        Entry entry = memory.get(key);
+        File file = new File(dir, key);
+        if (entry == null) {
+            if (fileSizes.get(key) == null) return null;
+            try {
+                entry = read(file);
+            } catch (IOException | NumberFormatException e) {
+                Log.w(TAG, "Could not read cache entry " + key, e);
+                remove(key);
+                return null;
+            }
+        } else {
+            fileSizes.get(key);  // keep the LRU order of both maps in sync
+        }
+
+        if (maxAgeMillis > 0 && System.currentTimeMillis() - entry.created > maxAgeMillis) {
+            remove(key);
+            return null;
+        }
+        memory.put(key, entry);
+        file.setLastModified(System.currentTimeMillis());  // the LRU order survives a restart
+        return entry.value;
+    }
+
+    public synchronized void put(String key, String value) {
+        load();
+        Entry entry = new Entry(System.currentTimeMillis(), value);
+        byte[] bytes = (entry.created + "\n" + value).getBytes(StandardCharsets.UTF_8);
+        File file = new File(dir, key);
+        File tmp = new File(dir, key + ".tmp");
+        try {
+            Files.write(tmp.toPath(), bytes);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write cache entry " + key, e);
+            tmp.delete();
+            return;
+        }
+
+        Long previous = fileSizes.put(key, (long) bytes.length);
+        totalBytes += bytes.length - (previous != null ? previous : 0);
+        memory.put(key, entry);
+        trim();
+    }
+
+    public synchronized void remove(String key) {
+        load();
+        Long size = fileSizes.remove(key);
+        if (size != null) totalBytes -= size;
+        memory.remove(key);
+        new File(dir, key).delete();
+    }
+
+    public synchronized void clear() {
+        load();
+        for (String key : fileSizes.keySet()) new File(dir, key).delete();
+        fileSizes.clear();
+        memory.clear();
+        totalBytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = fileSizes.entrySet().iterator();
+        while ((fileSizes.size() > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            totalBytes -= eldest.getValue();
+            memory.remove(eldest.getKey());
+            new File(dir, eldest.getKey()).delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Reads the existing entries lazily, so creating the cache doesn't touch the disk
+     */
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!dir.exists() && !dir.mkdirs()) Log.w(TAG, "Could not create " + dir);
+
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {  // left over from a crash while writing
+                file.delete();
+                continue;
+            }
+            fileSizes.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        trim();
+    }
+
+    private static Entry read(File file) throws IOException {
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        int newline = content.indexOf('\n');
+        if (newline < 0) throw new IOException("Malformed cache entry");
+        return new Entry(Long.parseLong(content.substring(0, newline)), content.substring(newline + 1));
+    }
+
+    /**
+     * Builds a cache key as SHA-256 over all parts, each part is prefixed with its length so they can't be mixed up
+     */
+    public static class KeyBuilder {
+        private final MessageDigest digest;
+
+        public KeyBuilder() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);  // every Android device provides SHA-256
+            }
+        }
+
+        public KeyBuilder add(String value) {
+            if (value == null) {
+                addLength(-1);
+                return this;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            addLength(bytes.length);
+            digest.update(bytes);
+            return this;
+        }
+
+        public KeyBuilder add(long value) {
+            return add(String.valueOf(value));
+        }
+
+        public KeyBuilder add(File file) throws IOException {
+            addLength(file.length());
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = new FileInputStream(file)) {
+                int count;
+                while ((count = in.read(buffer)) > 0) digest.update(buffer, 0, count);
+            }
+            return this;
+        }
+
+        private void addLength(long length) {
+            for (int i = 7; i >= 0; i--) digest.update((byte) (length >>> (i * 8)));
+        }
+
+        /**
+         * @return The key as lowercase hex string, which is also the file name of the entry
+         */
+        public String build() {
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+
+import net.devemperor.dictate.DictateConfig;
+
+import java.io.File;
+
+/**
+ * Remembers rewordings by prompt, settings and input text, so running the same prompt on the same text again
+ * (e.g. after an undo or a resend) doesn't call the API. Answers at a temperature above 0 are only cached if
+ * the user allowed it, since running such a prompt again is often meant to get a different answer.
+ */
+public class RewordingCache {
+
+    private static final int MAX_ENTRIES = 300;
+    private static final long MAX_BYTES = 1024 * 1024;
+    private static final long MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int MEMORY_ENTRIES = 32;
+
+    private static ResultCache cache;
+
+    public static synchronized ResultCache get(Context context) {
+        if (cache == null) {
+            cache = new ResultCache(new File(context.getCacheDir(), "rewordings"), MAX_ENTRIES, MAX_BYTES, MAX_AGE_MILLIS, MEMORY_ENTRIES);
+        }
+        return cache;
+    }
+
+    /**
+     * @return Whether answers with the current rewording settings may be cached
+     */
+    public static boolean isEnabled(DictateConfig config) {
+        return config.getRewording().getTemperature() == 0 || config.isRewordingCacheNonDeterministic();
+    }
+
+    public static String key(DictateConfig config, String prompt, String textToReword) {
+        DictateConfig.ApiConfig api = config.getRewording();
+        return new ResultCache.KeyBuilder()
+                .add(prompt)
+                .add(config.isUsePromptAsSystemPrompt() ? 1 : 0)
+                .add(api.getApiHost())
+                .add(api.getModel())
+                .add(Float.floatToIntBits(api.getTemperature()))
+                .add(textToReword)
+                .build();
+    }
+}
@@ -0,0 +1,225 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import net.devemperor.dictate.DictateConfig;
+import net.devemperor.dictate.DictateUtils;
+import net.devemperor.dictate.audio.AudioFileDecoder;
+import net.devemperor.dictate.audio.OverlappingWindowWriter;
+import net.devemperor.dictate.core.DictateInputMethodService;
+import net.devemperor.dictate.usage.UsageDatabaseHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Transcribes long audio files by splitting them into overlapping windows which are sent concurrently.
+ * The file is decoded while the first windows are already uploading, the number of parallel requests
+ * is configured per provider. The transcripts are merged in order and the words of the overlaps are
+ * only kept once.
+ */
+public class SplitTranscriptionJob {
+
+    private static final String TAG = "SplitTranscription";
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int WINDOW_MS = 300_000;  // 5 min, about 9.6 MB as 16 kHz WAV
+    private static final int OVERLAP_MS = 5_000;
+    private static final long MAX_SINGLE_REQUEST_BYTES = 20 * 1024 * 1024;  // OpenAI accepts max. 25 MB
+    private static final int MAX_OVERLAP_WORDS = 40;
+    private static final int MAX_PARTIAL_WORDS = 3;  // words cut at the window edges
+    private static final int MIN_OVERLAP_WORDS = 2;
+    private static final int MAX_OVERLAP_CHARACTERS = 120;  // 5 s of speech in scripts without spaces
+    private static final int MAX_PARTIAL_CHARACTERS = 2;
+    private static final int MIN_OVERLAP_CHARACTERS = 4;
+    private static final int[] DEFAULT_PARALLELISM = {4, 2, 2};  // OpenAI, Groq, custom server
+
+    private final Context context;
+    private final UsageDatabaseHelper usageDb;
+    private final String language;
+    private final String stylePrompt;
+    private volatile ExecutorService executor;
+
+    public SplitTranscriptionJob(Context context, UsageDatabaseHelper usageDb, String language, String stylePrompt) {
+        this.context = context.getApplicationContext();
+        this.usageDb = usageDb;
+        this.language = language;
+        this.stylePrompt = stylePrompt;
+    }
+
+    /**
+     * @return Whether the file is too long or too large to be sent in a single request
+     */
+    public static boolean needsSplitting(File audioFile) {
+        return audioFile.length() > MAX_SINGLE_REQUEST_BYTES || DictateUtils.getAudioDuration(audioFile) * 1000 > WINDOW_MS;
+    }
+
+    /**
+     * @return The number of concurrent transcription requests configured for the provider
+     */
+    public static int getParallelism(SharedPreferences sp, int provider) {
+        int fallback = provider >= 0 && provider < DEFAULT_PARALLELISM.length ? DEFAULT_PARALLELISM[provider] : 1;
+        return Math.max(1, sp.getInt("net.devemperor.dictate.transcription_parallelism_" + provider, fallback));
+    }
+
+    /**
+     * Splits and transcribes the file, blocks until all windows are transcribed
+     *
+     * @return The merged transcript
+     * @throws Exception if the file can't be decoded or a window could not be transcribed
+     */
+    public String transcribe(File audioFile) throws Exception {
+        int parallelism = DictateConfig.get(context).getTranscriptionParallelism();
+        executor = Executors.newFixedThreadPool(parallelism);
+        Semaphore pendingWindows = new Semaphore(parallelism * 2);  // limits the decoded windows waiting on disk
+        List<Future<String>> results = new ArrayList<>();
+        File windowDir = new File(context.getCacheDir(), "windows");
+
+        long startTime = System.currentTimeMillis();
+        try {
+            try {
+                AudioFileDecoder.decode(audioFile, SAMPLE_RATE, new OverlappingWindowWriter(windowDir, WINDOW_MS, OVERLAP_MS, (window, index) -> {
+                    try {
+                        pendingWindows.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while splitting", e);
+                    }
+                    results.add(executor.submit(() -> {
+                        try {
+                            String text = DictateInputMethodService.transcribeAudioFile(context, window, usageDb, language, stylePrompt);
+                            Log.d(TAG, "Window " + index + " transcribed");
+                            return text;
+                        } finally {
+                            window.delete();
+                            pendingWindows.release();
+                        }
+                    }));
+                }));
+            } catch (IOException e) {
+                // some containers can't be decoded on every device, the API may still accept the file as it is
+                if (!results.isEmpty() || audioFile.length() > MAX_SINGLE_REQUEST_BYTES) throw e;
+                Log.w(TAG, "Could not split " + audioFile.getName() + ", sending it in one request", e);
+                return DictateInputMethodService.transcribeAudioFile(context, audioFile, usageDb, language, stylePrompt);
+            }
+
+            String transcript = "";
+            for (Future<String> result : results) {
+                try {
+                    transcript = mergeOverlapping(transcript, result.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            Log.d(TAG, results.size() + " windows transcribed in " + (System.currentTimeMillis() - startTime) + " ms with " + parallelism + " parallel requests");
+            return transcript;
+        } finally {
+            executor.shutdownNow();
+            File[] leftovers = windowDir.listFiles();
+            if (leftovers != null) for (File file : leftovers) file.delete();
+        }
+    }
+
+    public void cancel() {
+        ExecutorService current = executor;
+        if (current != null) current.shutdownNow();
+    }
+
+    /**
+     * Appends the transcript of the next window to the transcript so far. The longest run of words at the end
+     * of the first text that also starts the second text (ignoring case and punctuation) is only kept once,
+     * a few words at the edges may differ because they were cut in the middle. Scripts which are written
+     * without spaces (e.g. Chinese, Japanese, Thai) are compared character by character instead.
+     */
+    static String mergeOverlapping(String first, String second) {
+        if (first.isEmpty()) return second;
+        if (second.isEmpty()) return first;
+
+        if (isWrittenWithoutSpaces(first) || isWrittenWithoutSpaces(second)) {
+            return merge(first, second, graphemes(first), graphemes(second), "", MAX_OVERLAP_CHARACTERS, MAX_PARTIAL_CHARACTERS, MIN_OVERLAP_CHARACTERS);
+        }
+        return merge(first, second, first.split("\\s+"), second.split("\\s+"), " ", MAX_OVERLAP_WORDS, MAX_PARTIAL_WORDS, MIN_OVERLAP_WORDS);
+    }
+
+    /**
+     * @param separator Joins the tokens, the texts are joined with it if they don't overlap
+     * @param minOverlap Shorter overlaps are not trusted, then duplicates are kept rather than losing text
+     */
+    private static String merge(String first, String second, String[] firstTokens, String[] secondTokens, String separator, int maxOverlap, int maxPartial, int minOverlap) {
+        int bestLength = 0, bestDroppedTail = 0, bestSkippedHead = 0;
+
+        for (int droppedTail = 0; droppedTail <= maxPartial && droppedTail < firstTokens.length; droppedTail++) {
+            for (int skippedHead = 0; skippedHead <= maxPartial && skippedHead < secondTokens.length; skippedHead++) {
+                int maxLength = Math.min(maxOverlap, Math.min(firstTokens.length - droppedTail, secondTokens.length - skippedHead));
+                for (int length = maxLength; length > bestLength; length--) {
+                    if (tokensMatch(firstTokens, firstTokens.length - droppedTail - length, secondTokens, skippedHead, length)) {
+                        bestLength = length;
+                        bestDroppedTail = droppedTail;
+                        bestSkippedHead = skippedHead;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (bestLength < minOverlap) return first + separator + second;
+
+        StringBuilder merged = new StringBuilder();
+        for (int i = 0; i < firstTokens.length - bestDroppedTail; i++) {
+            if (i > 0) merged.append(separator);
+            merged.append(firstTokens[i]);
+        }
+        for (int i = bestSkippedHead + bestLength; i < secondTokens.length; i++) {
+            merged.append(separator).append(secondTokens[i]);
+        }
+        return merged.toString();
+    }
+
+    private static boolean isWrittenWithoutSpaces(String text) {
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            switch (Character.UnicodeScript.of(codePoint)) {
+                case HAN: case HIRAGANA: case KATAKANA: case THAI: case LAO: case KHMER: case MYANMAR: case TIBETAN:
+                    return true;
+                default:
+                    i += Character.charCount(codePoint);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The characters of the text, a character made of several code points (e.g. an emoji) stays together
+     */
+    private static String[] graphemes(String text) {
+        BreakIterator iterator = BreakIterator.getCharacterInstance();
+        iterator.setText(text);
+        List<String> graphemes = new ArrayList<>();
+        for (int start = iterator.first(), end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+            graphemes.add(text.substring(start, end));
+        }
+        return graphemes.toArray(new String[0]);
+    }
+
+    private static boolean tokensMatch(String[] a, int aStart, String[] b, int bStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!normalize(a[aStart + i]).equals(normalize(b[bStart + i]))) return false;
+        }
+        return true;
+    }
+
+    private static String normalize(String token) {
+        return token.replaceAll("[\\p{P}\\p{S}]", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,106 @@
+package net.devemperor.dictate.api;
+
+import com.openai.core.RequestOptions;
+import com.openai.core.http.HttpClient;
+import com.openai.core.http.HttpRequest;
+import com.openai.core.http.HttpRequestBody;
+import com.openai.core.http.HttpResponse;
+
+import net.devemperor.dictate.PipelineTracer;
+
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sits between the retry logic of the SDK and its OkHttp client and marks, per attempt, when the request body was
+ * written (upload span) and when the response headers arrived (server wait span). How long the upload took is
+ * kept per thread for {@link AdaptiveTimeouts}. The request is passed on as it is, its body keeps its length and
+ * can still be sent again by a retry.
+ */
+public class TracingHttpClient implements HttpClient {
+
+    private static final ThreadLocal<Long> uploadMillis = ThreadLocal.withInitial(() -> -1L);
+
+    private final HttpClient delegate;
+
+    TracingHttpClient(HttpClient delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request, RequestOptions requestOptions) {
+        uploadMillis.set(-1L);
+        HttpRequestBody body = request.body();
+        if (body == null) return delegate.execute(request, requestOptions);
+
+        long start = System.nanoTime();
+        long[] spans = {PipelineTracer.begin(PipelineTracer.UPLOAD), 0};
+        HttpRequest traced = request.toBuilder().body(new TracedBody(body, () -> {
+            uploadMillis.set((System.nanoTime() - start) / 1_000_000);  // OkHttp writes the body on the calling thread
+            PipelineTracer.end(spans[0]);
+            spans[1] = PipelineTracer.begin(PipelineTracer.SERVER_WAIT);
+        })).build();
+        try {
+            return delegate.execute(traced, requestOptions);  // returns with the headers, the body is read by the caller
+        } finally {
+            PipelineTracer.end(spans[0]);
+            PipelineTracer.end(spans[1]);
+        }
+    }
+
+    /**
+     * @return How long sending the body of the last request on this thread took, -1 if it wasn't sent completely
+     */
+    public static long getUploadMillis() {
+        return uploadMillis.get();
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(HttpRequest request, RequestOptions requestOptions) {
+        return delegate.executeAsync(request, requestOptions);  // the app only sends blocking requests
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Runs a callback every time the wrapped body was completely written to the connection
+     */
+    private static class TracedBody implements HttpRequestBody {
+        private final HttpRequestBody body;
+        private final Runnable onWritten;
+
+        TracedBody(HttpRequestBody body, Runnable onWritten) {
+            this.body = body;
+            this.onWritten = onWritten;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) {
+            body.writeTo(outputStream);
+            onWritten.run();
+        }
+
+        @Override
+        public String contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return body.contentLength();
+        }
+
+        @Override
+        public boolean repeatable() {
+            return body.repeatable();
+        }
+
+        @Override
+        public void close() {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+
+import net.devemperor.dictate.DictateConfig;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Remembers transcripts by the content of the audio and the transcription settings, so resending a recording or
+ * transcribing the same file again doesn't upload and bill the same bytes twice
+ */
+public class TranscriptionCache {
+
+    public static final int MODE_OFF = 0;  // neither read nor write, e.g. for segments which are never sent again
+    public static final int MODE_USE = 1;
+    public static final int MODE_REFRESH = 2;  // transcribe again and replace the cached transcript
+
+    private static final int MAX_ENTRIES = 200;
+    private static final long MAX_BYTES = 2 * 1024 * 1024;
+    private static final int MEMORY_ENTRIES = 8;
+
+    private static ResultCache cache;
+
+    public static synchronized ResultCache get(Context context) {
+        if (cache == null) {
+            cache = new ResultCache(new File(context.getCacheDir(), "transcriptions"), MAX_ENTRIES, MAX_BYTES, 0, MEMORY_ENTRIES);
+        }
+        return cache;
+    }
+
+    /**
+     * @return The key of the transcript of this file with the current transcription settings
+     */
+    public static String key(DictateConfig config, File audioFile, String language, String stylePrompt) throws IOException {
+        DictateConfig.ApiConfig api = config.getTranscription();
+        return new ResultCache.KeyBuilder()
+                .add(audioFile)
+                .add(api.getApiHost())
+                .add(api.getModel())
+                .add(language != null ? language : "detect")
+                .add(stylePrompt != null ? stylePrompt : "")
+                .add(Float.floatToIntBits(api.getTemperature()))
+                .build();
+    }
+}
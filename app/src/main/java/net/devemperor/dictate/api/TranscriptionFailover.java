@@ -0,0 +1,176 @@
+package net.devemperor.dictate.api;
+
+import android.util.Log;
+
+import net.devemperor.dictate.DictateConfig;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a transcription along the configured chain of providers. The next provider is tried when one fails or
+ * doesn't answer within the slow threshold derived from its {@link LatencyHistogram}. In hedged mode the next provider
+ * is already started when the first one takes longer than its 95th percentile, the first answer wins and the other
+ * request is cancelled.
+ */
+public class TranscriptionFailover {
+
+    private static final String TAG = "TranscriptionFailover";
+
+    private static final long DEFAULT_HEDGE_DELAY_MS = 8_000;
+    private static final long MIN_HEDGE_DELAY_MS = 1_500;
+    private static final long MAX_HEDGE_DELAY_MS = 30_000;
+    private static final long DEFAULT_SLOW_THRESHOLD_MS = 60_000;
+    private static final long MIN_SLOW_THRESHOLD_MS = 15_000;
+    private static final long MAX_SLOW_THRESHOLD_MS = 110_000;  // below the timeout of the client
+    private static final long MS_PER_AUDIO_SECOND = 500;  // added to the defaults and limits, long recordings need longer
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * One request to one provider
+     */
+    public interface Attempt {
+        /**
+         * @param onFirstByte Has to be called when the response headers arrived
+         */
+        String run(DictateConfig.ApiConfig api, Runnable onFirstByte);
+    }
+
+    /**
+     * @param audioSeconds The duration of the recording, the thresholds grow with it
+     * @return The transcript of the first provider which answered, otherwise the error of the selected provider is thrown
+     */
+    public static String transcribe(DictateConfig config, long audioSeconds, Attempt attempt) {
+        List<DictateConfig.ApiConfig> chain = new ArrayList<>();
+        chain.add(config.getTranscription());
+        if (config.getTranscriptionFailover() != null) chain.add(config.getTranscriptionFailover());
+
+        if (chain.size() == 1) return attempt.run(chain.get(0), null);  // no extra thread without a failover provider
+        try {
+            return config.isTranscriptionHedging() ? hedged(chain, audioSeconds, attempt) : sequential(chain, audioSeconds, attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(new InterruptedIOException("interrupted"));  // shown like a cancelled request
+        }
+    }
+
+    private static String sequential(List<DictateConfig.ApiConfig> chain, long audioSeconds, Attempt attempt) throws InterruptedException {
+        RuntimeException firstError = null;
+        for (int i = 0; i < chain.size(); i++) {
+            DictateConfig.ApiConfig api = chain.get(i);
+            if (i == chain.size() - 1) {  // nothing left to wait for, the last provider gets the full timeout
+                try {
+                    return attempt.run(api, null);
+                } catch (RuntimeException e) {
+                    throw firstError != null ? firstError : e;
+                }
+            }
+
+            CountDownLatch firstByte = new CountDownLatch(1);
+            Future<String> future = executor.submit(() -> {
+                try {
+                    return attempt.run(api, firstByte::countDown);
+                } finally {
+                    firstByte.countDown();
+                }
+            });
+            try {
+                long threshold = slowThreshold(api, audioSeconds);
+                if (!firstByte.await(threshold, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, api.getApiHost() + " didn't answer within " + threshold + " ms, trying the next provider");
+                    future.cancel(true);
+                    if (firstError == null) firstError = new RuntimeException(new SocketTimeoutException("timeout"));
+                    continue;
+                }
+                return future.get();
+            } catch (ExecutionException e) {
+                Log.w(TAG, api.getApiHost() + " failed, trying the next provider", e.getCause());
+                if (firstError == null) firstError = unwrap(e);
+            } finally {
+                future.cancel(true);
+            }
+        }
+        throw firstError;
+    }
+
+    private static String hedged(List<DictateConfig.ApiConfig> chain, long audioSeconds, Attempt attempt) throws InterruptedException {
+        ExecutorCompletionService<String> completion = new ExecutorCompletionService<>(executor);
+        List<Future<String>> futures = new ArrayList<>();
+        RuntimeException firstError = null;
+        int started = 0;
+        int pending = 0;
+        try {
+            while (true) {
+                DictateConfig.ApiConfig api = chain.get(started++);
+                CountDownLatch firstByte = new CountDownLatch(1);
+                futures.add(completion.submit(() -> attempt.run(api, firstByte::countDown)));
+                pending++;
+                boolean canHedge = started < chain.size();
+                long hedgeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelay(api, audioSeconds));
+
+                while (pending > 0) {
+                    Future<String> done;
+                    if (canHedge && firstByte.getCount() > 0) {
+                        long wait = hedgeAt - System.nanoTime();
+                        done = wait > 0 ? completion.poll(wait, TimeUnit.NANOSECONDS) : null;
+                        if (done == null) {
+                            if (firstByte.getCount() > 0) break;  // still no answer, the next provider is started
+                            continue;
+                        }
+                    } else {
+                        done = completion.take();
+                    }
+
+                    pending--;
+                    try {
+                        return done.get();
+                    } catch (ExecutionException e) {
+                        Log.w(TAG, "A hedged transcription failed", e.getCause());
+                        if (firstError == null) firstError = unwrap(e);
+                        if (canHedge) break;
+                    }
+                }
+                if (pending > 0 || canHedge) {
+                    Log.d(TAG, "Hedging with " + chain.get(started).getApiHost());
+                    continue;
+                }
+                throw firstError;
+            }
+        } finally {
+            for (Future<String> future : futures) future.cancel(true);  // the loser is cancelled
+        }
+    }
+
+    /**
+     * @return The time after which a second provider is started, the 95th percentile of the time to the first byte
+     * for a recording of this length
+     */
+    private static long hedgeDelay(DictateConfig.ApiConfig api, long audioSeconds) {
+        long p95 = LatencyHistogram.of(api.getApiHost(), api.getModel()).percentile(0.95, audioSeconds);
+        long allowance = MS_PER_AUDIO_SECOND * audioSeconds;
+        return p95 < 0 ? DEFAULT_HEDGE_DELAY_MS + allowance : Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS + allowance, p95));
+    }
+
+    /**
+     * @return The time after which a provider without answer is given up, twice the 99th percentile for a recording of this length
+     */
+    private static long slowThreshold(DictateConfig.ApiConfig api, long audioSeconds) {
+        long p99 = LatencyHistogram.of(api.getApiHost(), api.getModel()).percentile(0.99, audioSeconds);
+        long allowance = MS_PER_AUDIO_SECOND * audioSeconds;
+        return p99 < 0 ? DEFAULT_SLOW_THRESHOLD_MS + allowance : Math.max(MIN_SLOW_THRESHOLD_MS, Math.min(MAX_SLOW_THRESHOLD_MS + allowance, 2 * p99));
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        return e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+    }
+}
@@ -0,0 +1,219 @@
+package net.devemperor.dictate.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import net.devemperor.dictate.DictateConfig;
+import net.devemperor.dictate.core.DictateInputMethodService;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * A chat completion with an image, sent without the SDK so the image never exists as string in memory. The request
+ * body is written as JSON text around the image, which is read from its file in small blocks and base64 encoded
+ * straight into the HTTP sink. The content length is known in advance, so the body doesn't need chunked encoding.
+ */
+public class VisionRequest {
+
+    private static final String TAG = "VisionRequest";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final Gson gson = new Gson();
+
+    private final Context context;
+    private final DictateConfig.ApiConfig api;
+    private final String proxyHost;
+    private final byte[] head;
+    private final byte[] tail;
+    private final File image;
+
+    private long inputTokens;
+    private long outputTokens;
+    private long ttfbMillis = -1;
+
+    /**
+     * @param systemPrompt The system message, null to send only the user message
+     * @param mimeType The type of the image, e.g. image/webp
+     */
+    public VisionRequest(Context context, DictateConfig config, String systemPrompt, String userMessage, File image, String mimeType, boolean stream) {
+        this.context = context.getApplicationContext();
+        this.api = config.getRewording();
+        this.proxyHost = config.getProxyHost();
+        this.image = image;
+
+        StringBuilder json = new StringBuilder(userMessage.length() + 512);
+        json.append("{\"model\":").append(gson.toJson(api.getModel()))
+                .append(",\"temperature\":").append(api.getTemperature());
+        if (stream) json.append(",\"stream\":true,\"stream_options\":{\"include_usage\":true}");
+        json.append(",\"messages\":[");
+        if (systemPrompt != null) json.append("{\"role\":\"system\",\"content\":").append(gson.toJson(systemPrompt)).append("},");
+        json.append("{\"role\":\"user\",\"content\":[{\"type\":\"text\",\"text\":").append(gson.toJson(userMessage)).append("},")
+                .append("{\"type\":\"image_url\",\"image_url\":{\"url\":\"data:").append(mimeType).append(";base64,");
+        head = json.toString().getBytes(StandardCharsets.UTF_8);
+        tail = "\"}}]}]}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The size of the image in the request, as base64 data URL
+     */
+    public long getImagePayloadBytes() {
+        return 4 * ((image.length() + 2) / 3);
+    }
+
+    /**
+     * Sends the request and waits for the whole answer
+     *
+     * @param listener Receives the answer while it is generated, null for a single response
+     * @return The answer, only the beginning if the listener cancelled the stream
+     * @throws IOException if the request failed or the server answered with an error
+     */
+    public String execute(DictateInputMethodService.RewordingStreamListener listener) throws IOException {
+        String host = api.getApiHost().endsWith("/") ? api.getApiHost() : api.getApiHost() + "/";
+        Request request = new Request.Builder()
+                .url(host + "chat/completions")
+                .header("Authorization", "Bearer " + api.getApiKey())
+                .post(new Body())
+                .build();
+
+        OkHttpClient client = OpenAIClientPool.getInstance(context).acquireHttpClient(proxyHost).newBuilder()
+                .readTimeout(AdaptiveTimeouts.rewordingReadTimeout(api.getApiHost(), api.getModel()).toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+        long startTime = System.nanoTime();
+        Call call = client.newCall(request);
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            if (!Thread.currentThread().isInterrupted()) {  // no answer in time, the next read timeout has to be longer
+                AdaptiveTimeouts.recordRewordingFailure(api.getApiHost(), api.getModel(), (System.nanoTime() - startTime) / 1_000_000);
+            }
+            throw e;
+        }
+        try (Response r = response) {
+            ttfbMillis = (System.nanoTime() - startTime) / 1_000_000;
+            AdaptiveTimeouts.recordRewording(api.getApiHost(), api.getModel(), ttfbMillis);
+            if (response.body() == null) throw new IOException("Empty response");
+            if (!response.isSuccessful()) throw new IOException("HTTP " + response.code() + ": " + response.body().string());
+            return listener != null ? readStream(response.body().source(), listener) : readCompletion(response.body().string());
+        }
+    }
+
+    public long getInputTokens() {
+        return inputTokens;
+    }
+
+    public long getOutputTokens() {
+        return outputTokens;
+    }
+
+    /**
+     * @return The time until the response headers arrived, -1 if there was no response
+     */
+    public long getTtfbMillis() {
+        return ttfbMillis;
+    }
+
+    private String readCompletion(String body) {
+        JsonObject json = JsonParser.parseString(body).getAsJsonObject();
+        readUsage(json);
+        JsonElement content = json.getAsJsonArray("choices").get(0).getAsJsonObject().getAsJsonObject("message").get("content");
+        return content == null || content.isJsonNull() ? "" : content.getAsString();
+    }
+
+    /**
+     * Reads the server-sent events of a streamed completion
+     */
+    private String readStream(BufferedSource source, DictateInputMethodService.RewordingStreamListener listener) throws IOException {
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (listener.isCancelled()) {
+                Log.d(TAG, "Stream cancelled");
+                break;
+            }
+            if (!line.startsWith("data:")) continue;
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) break;
+
+            JsonObject chunk = JsonParser.parseString(data).getAsJsonObject();
+            readUsage(chunk);
+            JsonArray choices = chunk.getAsJsonArray("choices");
+            if (choices == null) continue;
+            for (JsonElement choice : choices) {
+                JsonObject delta = choice.getAsJsonObject().getAsJsonObject("delta");
+                JsonElement content = delta != null ? delta.get("content") : null;
+                if (content == null || content.isJsonNull()) continue;
+                text.append(content.getAsString());
+                listener.onDelta(content.getAsString());
+            }
+        }
+        return text.toString();
+    }
+
+    private void readUsage(JsonObject json) {
+        JsonElement usage = json.get("usage");
+        if (usage == null || !usage.isJsonObject()) return;
+        inputTokens = usage.getAsJsonObject().get("prompt_tokens").getAsLong();
+        outputTokens = usage.getAsJsonObject().get("completion_tokens").getAsLong();
+    }
+
+    /**
+     * Writes the JSON text around the image and streams the image through the base64 encoder, so at most one
+     * block of the file is in memory
+     */
+    private class Body extends RequestBody {
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return head.length + getImagePayloadBytes() + tail.length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(head);
+            OutputStream keepOpen = new FilterOutputStream(sink.outputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();  // the encoder writes its padding on close, the sink stays open for the tail
+                }
+            };
+            try (InputStream in = new FileInputStream(image); OutputStream base64 = Base64.getEncoder().wrap(keepOpen)) {
+                byte[] buffer = new byte[12 * 1024];
+                int count;
+                while ((count = in.read(buffer)) > 0) base64.write(buffer, 0, count);
+            }
+            sink.write(tail);
+        }
+    }
+}
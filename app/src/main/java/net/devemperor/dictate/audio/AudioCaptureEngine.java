@@ -0,0 +1,239 @@
+package net.devemperor.dictate.audio;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.util.Log;
+
+import net.devemperor.dictate.PipelineTracer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Captures mono 16 bit PCM with {@link AudioRecord} and hands it to pluggable {@link PcmConsumer}s
+ * (file writer, encoder, voice activity detector, ...) while the user is still speaking.
+ * A capture thread only moves samples from the AudioRecord into a lock-free ring buffer,
+ * a separate dispatch thread feeds the consumers, so consumers can fall behind by up to four
+ * seconds without losing audio. If they fall behind further, samples are dropped and
+ * {@link #hasDroppedAudio()} returns true, the recording is incomplete then.
+ */
+public class AudioCaptureEngine {
+
+    private static final String TAG = "AudioCaptureEngine";
+
+    public static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = SAMPLE_RATE / 50;  // 20 ms frames
+    private static final int RING_SECONDS = 4;
+
+    private final int audioSource;
+    private final int sampleRate;
+    private final List<PcmConsumer> consumers = new CopyOnWriteArrayList<>();
+    private final PcmRingBuffer ringBuffer;
+
+    private AudioRecord audioRecord;
+    private Thread captureThread;
+    private Thread dispatchThread;
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private boolean finished = true;
+    private volatile long capturedSamples = 0;
+    private volatile long droppedSamples = 0;
+
+    public AudioCaptureEngine(int audioSource) {
+        this(audioSource, SAMPLE_RATE);
+    }
+
+    public AudioCaptureEngine(int audioSource, int sampleRate) {
+        this.audioSource = audioSource;
+        this.sampleRate = sampleRate;
+        this.ringBuffer = new PcmRingBuffer(sampleRate * RING_SECONDS);
+    }
+
+    /**
+     * Adds a consumer, has to be called before {@link #start()}
+     */
+    public void addConsumer(PcmConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    @SuppressLint("MissingPermission")  // permission is checked before recording is started
+    public void start() throws IOException {
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) throw new IOException("Unsupported audio format, min buffer size: " + minBufferSize);
+
+        audioRecord = new AudioRecord(audioSource, sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize, FRAME_SAMPLES * 2 * 4));
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            audioRecord = null;
+            throw new IOException("AudioRecord could not be initialized");
+        }
+
+        for (PcmConsumer consumer : consumers) consumer.onStart(sampleRate);
+
+        audioRecord.startRecording();
+        running = true;
+        paused = false;
+        finished = false;
+
+        captureThread = new Thread(this::captureLoop, "DictateCapture");
+        captureThread.setPriority(Thread.MAX_PRIORITY);
+        dispatchThread = new Thread(this::dispatchLoop, "DictateDispatch");
+        captureThread.start();
+        dispatchThread.start();
+    }
+
+    public void pause() {
+        if (!running || paused) return;
+        paused = true;
+        try {
+            audioRecord.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Error pausing AudioRecord", e);
+        }
+    }
+
+    public void resume() {
+        if (!running || !paused) return;
+        audioRecord.startRecording();
+        paused = false;
+        LockSupport.unpark(captureThread);
+    }
+
+    /**
+     * Stops capturing without waiting, the microphone is free afterwards. The remaining samples are delivered
+     * by {@link #finish()}.
+     */
+    public void stopCapture() {
+        if (!running) return;
+        running = false;
+        try {
+            audioRecord.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Error stopping AudioRecord", e);
+        }
+    }
+
+    /**
+     * Delivers the remaining samples and finalizes all consumers after {@link #stopCapture()}. Blocks until done,
+     * so it must not be called on the main thread.
+     */
+    public synchronized void finish() {
+        if (finished) return;
+        finished = true;
+
+        joinQuietly(captureThread);
+        LockSupport.unpark(dispatchThread);
+        joinQuietly(dispatchThread);
+
+        long finalizeSpan = PipelineTracer.begin(PipelineTracer.FILE_FINALIZE);
+        for (PcmConsumer consumer : consumers) {
+            try {
+                consumer.onStop();
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error finalizing consumer " + consumer.getClass().getSimpleName(), e);
+            }
+        }
+        PipelineTracer.end(finalizeSpan);
+        Log.d(TAG, "Capture stopped, " + capturedSamples + " samples captured, " + droppedSamples + " dropped");
+    }
+
+    /**
+     * Stops capturing, delivers the remaining samples and finalizes all consumers. Blocks until done.
+     */
+    public void stop() {
+        stopCapture();
+        finish();
+    }
+
+    public synchronized void release() {
+        stop();
+        if (audioRecord != null) {
+            audioRecord.release();
+            audioRecord = null;
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return The duration of the captured audio in milliseconds (without paused time)
+     */
+    public long getCapturedMillis() {
+        return capturedSamples * 1000 / sampleRate;
+    }
+
+    /**
+     * @return True if samples were dropped because the consumers couldn't keep up, the recording has gaps then
+     */
+    public boolean hasDroppedAudio() {
+        return droppedSamples > 0;
+    }
+
+    /**
+     * @return The duration of the dropped audio in milliseconds
+     */
+    public long getDroppedMillis() {
+        return droppedSamples * 1000 / sampleRate;
+    }
+
+    private void captureLoop() {
+        short[] frame = new short[FRAME_SAMPLES];
+        while (running) {
+            if (paused) {
+                LockSupport.parkNanos(20_000_000L);
+                continue;
+            }
+
+            int read = audioRecord.read(frame, 0, frame.length);
+            if (read <= 0) {
+                if (read < 0) Log.w(TAG, "AudioRecord read error: " + read);
+                LockSupport.parkNanos(5_000_000L);
+                continue;
+            }
+
+            int written = ringBuffer.write(frame, read);
+            capturedSamples += written;
+            if (written < read) {
+                if (droppedSamples == 0) Log.w(TAG, "Ring buffer full, consumers can't keep up, dropping audio");
+                droppedSamples += read - written;
+            }
+            LockSupport.unpark(dispatchThread);
+        }
+    }
+
+    private void dispatchLoop() {
+        short[] frame = new short[FRAME_SAMPLES];
+        while (true) {
+            int count = ringBuffer.read(frame);
+            if (count == 0) {
+                if (!running && !captureThread.isAlive()) break;  // everything delivered
+                LockSupport.parkNanos(10_000_000L);
+                continue;
+            }
+
+            for (PcmConsumer consumer : consumers) {
+                try {
+                    consumer.onFrame(frame, count);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Consumer " + consumer.getClass().getSimpleName() + " failed, removing it", e);
+                    consumers.remove(consumer);
+                }
+            }
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null) return;
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package net.devemperor.dictate.audio;
+
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The formats the recording can be encoded to. Opus needs far fewer bytes for the same recognition quality
+ * than AAC, FLAC is lossless for maximum accuracy.
+ */
+public enum AudioEncoding {
+    AAC("m4a", MediaFormat.MIMETYPE_AUDIO_AAC, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4, 64_000),
+    OPUS("ogg", MediaFormat.MIMETYPE_AUDIO_OPUS, MediaMuxer.OutputFormat.MUXER_OUTPUT_OGG, 24_000),
+    FLAC("flac", MediaFormat.MIMETYPE_AUDIO_FLAC, -1, 0);  // written as raw FLAC stream, MediaMuxer has no container for it
+
+    // file extensions accepted by the transcription endpoints of OpenAI and Groq
+    private static final Set<String> SUPPORTED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "flac", "mp3", "mp4", "mpeg", "mpga", "m4a", "ogg", "opus", "wav", "webm"));
+
+    private final String extension;
+    private final String mimeType;
+    private final int muxerFormat;
+    private final int bitRate;
+
+    AudioEncoding(String extension, String mimeType, int muxerFormat, int bitRate) {
+        this.extension = extension;
+        this.mimeType = mimeType;
+        this.muxerFormat = muxerFormat;
+        this.bitRate = bitRate;
+    }
+
+    public static boolean isSupportedExtension(String extension) {
+        if (extension == null) return false;
+        if (extension.startsWith(".")) extension = extension.substring(1);
+        return SUPPORTED_EXTENSIONS.contains(extension.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Picks the encoding for a recording
+     *
+     * @param setting The value of the codec setting: "auto", "aac", "opus" or "flac"
+     * @param provider The transcription provider (0 = OpenAI, 1 = Groq, 2 = custom server)
+     */
+    public static AudioEncoding select(String setting, int provider) {
+        AudioEncoding encoding;
+        switch (setting) {
+            case "aac": encoding = AAC; break;
+            case "opus": encoding = OPUS; break;
+            case "flac": encoding = FLAC; break;
+            default:
+                // custom servers might not decode Opus, AAC was always sent to them
+                encoding = provider == 2 ? AAC : OPUS;
+        }
+        if (!encoding.isAvailable() || !isSupportedExtension(encoding.extension)) encoding = AAC;
+        return encoding;
+    }
+
+    /**
+     * @return Whether the device can write this format, the OGG muxer exists since Android 10
+     */
+    public boolean isAvailable() {
+        return this != OPUS || Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return One of the MediaMuxer.OutputFormat constants, -1 if the codec output is written as it is
+     */
+    public int getMuxerFormat() {
+        return muxerFormat;
+    }
+
+    /**
+     * @return The target bit rate, 0 for lossless
+     */
+    public int getBitRate() {
+        return bitRate;
+    }
+}
@@ -0,0 +1,144 @@
+package net.devemperor.dictate.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes an audio file of any format supported by the platform to 16 bit mono PCM with the given
+ * sample rate and passes it to a {@link PcmConsumer} in the same way as the capture engine does.
+ */
+public class AudioFileDecoder {
+
+    private static final long TIMEOUT_US = 10_000;
+
+    private AudioFileDecoder() { }
+
+    /**
+     * Decodes the file on the calling thread, the consumer is started and stopped by this method
+     *
+     * @param file The audio file to decode
+     * @param targetSampleRate The sample rate the consumer should receive
+     * @param consumer The consumer for the decoded PCM
+     * @throws IOException if the file can't be read or decoded
+     */
+    public static void decode(File file, int targetSampleRate, PcmConsumer consumer) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    break;
+                }
+            }
+            if (format == null) throw new IOException("No audio track in " + file.getName());
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            Resampler resampler = new Resampler(format.getInteger(MediaFormat.KEY_SAMPLE_RATE), targetSampleRate);
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            short[] mono = new short[0];
+            boolean inputDone = false;
+
+            consumer.onStart(targetSampleRate);
+            while (true) {
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int size = extractor.readSampleData(codec.getInputBuffer(inputIndex), 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    resampler = new Resampler(outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE), targetSampleRate);
+                } else if (outputIndex >= 0) {
+                    ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                    output.position(bufferInfo.offset);
+                    output.limit(bufferInfo.offset + bufferInfo.size);
+                    ShortBuffer pcm = output.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+
+                    int frames = pcm.remaining() / channels;
+                    if (mono.length < frames) mono = new short[frames];
+                    for (int i = 0; i < frames; i++) {
+                        int sum = 0;
+                        for (int c = 0; c < channels; c++) sum += pcm.get();
+                        mono[i] = (short) (sum / channels);
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+
+                    short[] resampled = resampler.process(mono, frames);
+                    if (resampled.length > 0) consumer.onFrame(resampled, resampled.length);
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+                }
+            }
+            consumer.onStop();
+        } catch (IllegalStateException | IllegalArgumentException e) {  // MediaCodec reports most errors as runtime exceptions
+            throw new IOException("Could not decode " + file.getName(), e);
+        } finally {
+            if (codec != null) {
+                try { codec.stop(); } catch (IllegalStateException ignored) { }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Linear interpolation resampler which keeps its state across buffers, good enough for speech
+     */
+    private static class Resampler {
+        private final double step;
+        private double position = 0;  // relative to the start of the current buffer, -1 is the last sample of the previous one
+        private short previous = 0;
+
+        Resampler(int inputRate, int outputRate) {
+            step = (double) inputRate / outputRate;
+        }
+
+        short[] process(short[] input, int count) {
+            if (count == 0) return new short[0];
+            short[] output = new short[(int) Math.ceil((count - position) / step) + 1];
+            int written = 0;
+            while (position < count - 1 && written < output.length) {
+                int index = (int) Math.floor(position);
+                double fraction = position - index;
+                int a = index < 0 ? previous : input[index];
+                int b = input[index + 1];
+                output[written++] = (short) Math.round(a + (b - a) * fraction);
+                position += step;
+            }
+            position -= count;
+            previous = input[count - 1];
+
+            if (written == output.length) return output;
+            short[] trimmed = new short[written];
+            System.arraycopy(output, 0, trimmed, 0, written);
+            return trimmed;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package net.devemperor.dictate.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes the captured PCM with one of the {@link AudioEncoding}s. AAC and Opus are muxed into their container
+ * (m4a, ogg), FLAC is written as native FLAC stream whose sample count is patched on stop.
+ */
+public class AudioFileEncoder implements PcmConsumer {
+
+    private static final long TIMEOUT_US = 10_000;
+    private static final int FLAC_COMPRESSION_LEVEL = 5;
+
+    private final File outputFile;
+    private final AudioEncoding encoding;
+
+    private MediaCodec codec;
+    private MediaMuxer muxer;
+    private OutputStream rawOut;
+    private byte[] rawBuffer = new byte[0];
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private int trackIndex = -1;
+    private int sampleRate;
+    private long encodedSamples = 0;
+
+    public AudioFileEncoder(File outputFile, AudioEncoding encoding) {
+        this.outputFile = outputFile;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Writes the encoded audio into a stream instead of a file, only possible for encodings without container
+     * (FLAC). The sample count in the header stays 0, which means unknown.
+     */
+    public AudioFileEncoder(OutputStream out, AudioEncoding encoding) {
+        if (encoding.getMuxerFormat() >= 0) throw new IllegalArgumentException(encoding + " needs a file for its muxer");
+        this.outputFile = null;
+        this.encoding = encoding;
+        this.rawOut = out;
+    }
+
+    public AudioEncoding getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public void onStart(int sampleRate) throws IOException {
+        this.sampleRate = sampleRate;
+        MediaFormat format = MediaFormat.createAudioFormat(encoding.getMimeType(), sampleRate, 1);
+        if (encoding == AudioEncoding.AAC) format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        if (encoding == AudioEncoding.FLAC) format.setInteger(MediaFormat.KEY_FLAC_COMPRESSION_LEVEL, FLAC_COMPRESSION_LEVEL);
+        if (encoding.getBitRate() > 0) format.setInteger(MediaFormat.KEY_BIT_RATE, encoding.getBitRate());
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, sampleRate / 5 * 2);
+
+        codec = MediaCodec.createEncoderByType(encoding.getMimeType());
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        codec.start();
+        if (encoding.getMuxerFormat() >= 0) {
+            muxer = new MediaMuxer(outputFile.getAbsolutePath(), encoding.getMuxerFormat());
+        } else if (rawOut == null) {
+            rawOut = new BufferedOutputStream(new FileOutputStream(outputFile), 32 * 1024);
+        }
+    }
+
+    @Override
+    public void onFrame(short[] samples, int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+            if (inputIndex < 0) {
+                drain(false);
+                continue;
+            }
+
+            ByteBuffer input = codec.getInputBuffer(inputIndex);
+            input.clear();
+            input.order(ByteOrder.LITTLE_ENDIAN);
+            int toCopy = Math.min(count - offset, input.remaining() / 2);
+            input.asShortBuffer().put(samples, offset, toCopy);
+
+            codec.queueInputBuffer(inputIndex, 0, toCopy * 2, encodedSamples * 1_000_000L / sampleRate, 0);
+            encodedSamples += toCopy;
+            offset += toCopy;
+            drain(false);
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US * 10);
+            if (inputIndex >= 0) {
+                codec.queueInputBuffer(inputIndex, 0, 0, encodedSamples * 1_000_000L / sampleRate, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                drain(true);
+            }
+        } finally {
+            codec.stop();
+            codec.release();
+            if (muxer != null) {
+                if (trackIndex >= 0) muxer.stop();  // stopping a muxer without any track throws
+                muxer.release();
+            }
+            if (rawOut != null) rawOut.close();
+        }
+        if (rawOut != null && outputFile != null) patchFlacSampleCount();
+    }
+
+    private void drain(boolean endOfStream) throws IOException {
+        int retries = 0;
+        while (true) {
+            int outputIndex = codec.dequeueOutputBuffer(bufferInfo, endOfStream ? TIMEOUT_US : 0);
+            if (outputIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream || ++retries > 100) return;  // give the codec max. 1 s to flush
+            } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (muxer != null) {
+                    trackIndex = muxer.addTrack(codec.getOutputFormat());
+                    muxer.start();
+                }
+            } else if (outputIndex >= 0) {
+                ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                boolean isConfig = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (muxer != null) {
+                    if (!isConfig && bufferInfo.size > 0 && trackIndex >= 0) {
+                        muxer.writeSampleData(trackIndex, output, bufferInfo);
+                    }
+                } else if (bufferInfo.size > 0) {
+                    writeRaw(output);  // the config buffer of FLAC is the "fLaC" marker with the STREAMINFO block
+                }
+                codec.releaseOutputBuffer(outputIndex, false);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) return;
+            }
+        }
+    }
+
+    private void writeRaw(ByteBuffer output) throws IOException {
+        if (rawBuffer.length < bufferInfo.size) rawBuffer = new byte[bufferInfo.size];
+        output.position(bufferInfo.offset);
+        output.get(rawBuffer, 0, bufferInfo.size);
+        rawOut.write(rawBuffer, 0, bufferInfo.size);
+    }
+
+    /**
+     * The encoder writes the STREAMINFO block before it knows the length, so the 36 bit total sample count
+     * (byte 21 low nibble to byte 25) is still 0 and some decoders can't tell the duration
+     */
+    private void patchFlacSampleCount() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(outputFile, "rw")) {
+            if (raf.length() < 26) return;
+            byte[] marker = new byte[4];
+            raf.readFully(marker);
+            if (marker[0] != 'f' || marker[1] != 'L' || marker[2] != 'a' || marker[3] != 'C') return;
+
+            raf.seek(21);
+            int upper = raf.read();
+            raf.seek(21);
+            raf.write((upper & 0xF0) | (int) ((encodedSamples >>> 32) & 0x0F));
+            raf.writeInt((int) encodedSamples);
+        }
+    }
+}
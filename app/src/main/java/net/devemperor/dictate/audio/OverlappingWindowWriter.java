@@ -0,0 +1,112 @@
+package net.devemperor.dictate.audio;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Splits a PCM stream into WAV files of a fixed length, each window starts with the last part of
+ * the previous one so that words at the cut are fully contained in at least one window.
+ */
+public class OverlappingWindowWriter implements PcmConsumer {
+
+    public interface WindowListener {
+        /**
+         * Called on the producing thread when a window is finished, in order
+         *
+         * @param window The WAV file of the window
+         * @param index The index of the window, starting at 0
+         */
+        void onWindowClosed(File window, int index) throws IOException;
+    }
+
+    private final File windowDir;
+    private final int windowMs;
+    private final int overlapMs;
+    private final WindowListener listener;
+
+    private long windowSamples;
+    private long overlapSamples;
+    private WavFileWriter current;
+    private WavFileWriter next;
+    private long currentSamples = 0;
+    private long nextSamples = 0;
+    private int sampleRate;
+    private int windowIndex = 0;
+
+    public OverlappingWindowWriter(File windowDir, int windowMs, int overlapMs, WindowListener listener) {
+        this.windowDir = windowDir;
+        this.windowMs = windowMs;
+        this.overlapMs = overlapMs;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onStart(int sampleRate) throws IOException {
+        this.sampleRate = sampleRate;
+        windowSamples = (long) windowMs * sampleRate / 1000;
+        overlapSamples = (long) overlapMs * sampleRate / 1000;
+        if (!windowDir.exists() && !windowDir.mkdirs()) throw new IOException("Could not create " + windowDir);
+        current = openWindow(windowIndex);
+        currentSamples = 0;
+    }
+
+    @Override
+    public void onFrame(short[] samples, int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            // write at most up to the next boundary (start of the overlap or end of the window)
+            long boundary = next == null ? windowSamples - overlapSamples : windowSamples;
+            int toWrite = (int) Math.min(count - offset, boundary - currentSamples);
+            short[] part = samples;
+            if (offset > 0) {
+                part = new short[toWrite];
+                System.arraycopy(samples, offset, part, 0, toWrite);
+            }
+
+            current.onFrame(part, toWrite);
+            currentSamples += toWrite;
+            if (next != null) {
+                next.onFrame(part, toWrite);
+                nextSamples += toWrite;
+            }
+            offset += toWrite;
+
+            if (next == null && currentSamples >= windowSamples - overlapSamples) {
+                next = openWindow(windowIndex + 1);
+                nextSamples = 0;
+            } else if (currentSamples >= windowSamples) {
+                closeCurrent();
+                current = next;
+                currentSamples = nextSamples;
+                next = null;
+            }
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (windowIndex > 0 && currentSamples <= overlapSamples) {  // the stream ended right at a cut
+            current.onStop();
+            current.getOutputFile().delete();
+        } else {
+            closeCurrent();
+        }
+        if (next != null) {  // only contains audio which is already part of the last window
+            next.onStop();
+            next.getOutputFile().delete();
+            next = null;
+        }
+    }
+
+    private WavFileWriter openWindow(int index) throws IOException {
+        WavFileWriter writer = new WavFileWriter(new File(windowDir, "window_" + index + ".wav"));
+        writer.onStart(sampleRate);
+        return writer;
+    }
+
+    private void closeCurrent() throws IOException {
+        current.onStop();
+        listener.onWindowClosed(current.getOutputFile(), windowIndex);
+        windowIndex++;
+    }
+}
@@ -0,0 +1,30 @@
+package net.devemperor.dictate.audio;
+
+import java.io.IOException;
+
+/**
+ * Downstream stage of the {@link AudioCaptureEngine}. All methods are called on the dispatch thread
+ * of the engine, so implementations don't need to be thread-safe towards each other.
+ */
+public interface PcmConsumer {
+
+    /**
+     * Called once before the first frame is delivered
+     *
+     * @param sampleRate The sample rate of the mono 16 bit PCM frames
+     */
+    void onStart(int sampleRate) throws IOException;
+
+    /**
+     * Called for every captured frame. The buffer is reused by the engine after this method returns.
+     *
+     * @param samples The PCM samples
+     * @param count The number of valid samples in the buffer
+     */
+    void onFrame(short[] samples, int count) throws IOException;
+
+    /**
+     * Called once after the last frame, consumers have to finalize and close their outputs here
+     */
+    void onStop() throws IOException;
+}
@@ -0,0 +1,66 @@
+package net.devemperor.dictate.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer for 16 bit PCM samples.
+ * The capture thread writes, the dispatch thread reads; no other threads may access it.
+ */
+public class PcmRingBuffer {
+
+    private final short[] buffer;
+    private final int mask;
+    private final AtomicLong writePos = new AtomicLong();
+    private final AtomicLong readPos = new AtomicLong();
+
+    /**
+     * @param minCapacity The minimum number of samples the buffer can hold, rounded up to a power of two
+     */
+    public PcmRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        buffer = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Writes as many samples as there is space for
+     *
+     * @return The number of samples written, smaller than count if the reader can't keep up
+     */
+    public int write(short[] src, int count) {
+        long write = writePos.get();
+        int free = buffer.length - (int) (write - readPos.get());
+        int toWrite = Math.min(free, count);
+
+        int offset = (int) (write & mask);
+        int firstPart = Math.min(toWrite, buffer.length - offset);
+        System.arraycopy(src, 0, buffer, offset, firstPart);
+        System.arraycopy(src, firstPart, buffer, 0, toWrite - firstPart);
+
+        writePos.lazySet(write + toWrite);
+        return toWrite;
+    }
+
+    /**
+     * Reads up to dst.length available samples
+     *
+     * @return The number of samples read, 0 if the buffer is empty
+     */
+    public int read(short[] dst) {
+        long read = readPos.get();
+        int available = (int) (writePos.get() - read);
+        int toRead = Math.min(available, dst.length);
+
+        int offset = (int) (read & mask);
+        int firstPart = Math.min(toRead, buffer.length - offset);
+        System.arraycopy(buffer, offset, dst, 0, firstPart);
+        System.arraycopy(buffer, 0, dst, firstPart, toRead - firstPart);
+
+        readPos.lazySet(read + toRead);
+        return toRead;
+    }
+
+    public int available() {
+        return (int) (writePos.get() - readPos.get());
+    }
+}
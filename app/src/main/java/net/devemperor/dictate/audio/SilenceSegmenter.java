@@ -0,0 +1,108 @@
+package net.devemperor.dictate.audio;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Cuts the captured audio into WAV segments at silence boundaries while the user is still speaking.
+ * A segment is closed as soon as it is long enough and a pause is detected, so that it can already be
+ * transcribed in the background. Segments without any speech are dropped.
+ */
+public class SilenceSegmenter implements PcmConsumer {
+
+    private static final String TAG = "SilenceSegmenter";
+
+    private static final int MIN_SEGMENT_MS = 10_000;
+    private static final int MAX_SEGMENT_MS = 120_000;
+    private static final int MIN_SILENCE_MS = 700;
+    private static final float SILENCE_RMS = 0.01f;  // about -40 dBFS
+
+    public interface SegmentListener {
+        /**
+         * Called on the dispatch thread of the capture engine when a segment is finished
+         *
+         * @param segment The WAV file of the segment
+         * @param index The index of the segment, starting at 0
+         */
+        void onSegmentClosed(File segment, int index);
+    }
+
+    private final File segmentDir;
+    private final SegmentListener listener;
+
+    private WavFileWriter writer;
+    private int sampleRate;
+    private int segmentIndex = 0;
+    private long segmentSamples = 0;
+    private long silentSamples = 0;
+    private boolean segmentHasSpeech = false;
+
+    public SilenceSegmenter(File segmentDir, SegmentListener listener) {
+        this.segmentDir = segmentDir;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onStart(int sampleRate) throws IOException {
+        this.sampleRate = sampleRate;
+        if (!segmentDir.exists() && !segmentDir.mkdirs()) throw new IOException("Could not create " + segmentDir);
+        File[] oldSegments = segmentDir.listFiles();
+        if (oldSegments != null) for (File file : oldSegments) file.delete();
+        openSegment();
+    }
+
+    @Override
+    public void onFrame(short[] samples, int count) throws IOException {
+        writer.onFrame(samples, count);
+        segmentSamples += count;
+
+        if (rms(samples, count) < SILENCE_RMS) {
+            silentSamples += count;
+        } else {
+            silentSamples = 0;
+            segmentHasSpeech = true;
+        }
+
+        long segmentMs = segmentSamples * 1000 / sampleRate;
+        long silenceMs = silentSamples * 1000 / sampleRate;
+        if ((segmentMs >= MIN_SEGMENT_MS && silenceMs >= MIN_SILENCE_MS) || segmentMs >= MAX_SEGMENT_MS) {
+            closeSegment();
+            openSegment();
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        closeSegment();
+    }
+
+    private void openSegment() throws IOException {
+        writer = new WavFileWriter(new File(segmentDir, "segment_" + segmentIndex + ".wav"));
+        writer.onStart(sampleRate);
+        segmentSamples = 0;
+        silentSamples = 0;
+        segmentHasSpeech = false;
+    }
+
+    private void closeSegment() throws IOException {
+        writer.onStop();
+        File segment = writer.getOutputFile();
+        if (!segmentHasSpeech) {
+            Log.d(TAG, "Dropping segment " + segmentIndex + " without speech");
+            segment.delete();
+            return;
+        }
+        Log.d(TAG, "Segment " + segmentIndex + " closed after " + segmentSamples * 1000 / sampleRate + " ms");
+        listener.onSegmentClosed(segment, segmentIndex);
+        segmentIndex++;
+    }
+
+    private static float rms(short[] samples, int count) {
+        if (count == 0) return 0;
+        long sumSquares = 0;
+        for (int i = 0; i < count; i++) sumSquares += (long) samples[i] * samples[i];
+        return (float) (Math.sqrt((double) sumSquares / count) / Short.MAX_VALUE);
+    }
+}
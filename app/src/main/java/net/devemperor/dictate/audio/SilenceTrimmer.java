@@ -0,0 +1,93 @@
+package net.devemperor.dictate.audio;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Removes leading and trailing silence from the captured audio and shortens long pauses before the
+ * frames are passed on to the wrapped consumer (usually the encoder). A short padding of silence is
+ * kept around speech so that word beginnings and endings are not cut off.
+ */
+public class SilenceTrimmer implements PcmConsumer {
+
+    private static final int HANGOVER_MS = 300;  // silence kept after speech
+    private static final int PRE_ROLL_MS = 300;  // silence kept before speech
+
+    private final PcmConsumer target;
+    private final VoiceActivityDetector detector;
+    private final ArrayDeque<short[]> preRoll = new ArrayDeque<>();
+
+    private int sampleRate;
+    private long preRollSamples = 0;
+    private long silenceSamples = 0;
+    private volatile long droppedSamples = 0;
+    private volatile boolean speechDetected = false;
+
+    public SilenceTrimmer(PcmConsumer target, VoiceActivityDetector detector) {
+        this.target = target;
+        this.detector = detector;
+    }
+
+    @Override
+    public void onStart(int sampleRate) throws IOException {
+        this.sampleRate = sampleRate;
+        preRoll.clear();
+        preRollSamples = 0;
+        silenceSamples = Long.MAX_VALUE / 2;  // leading silence is treated like a long pause
+        droppedSamples = 0;
+        speechDetected = false;
+        target.onStart(sampleRate);
+    }
+
+    @Override
+    public void onFrame(short[] samples, int count) throws IOException {
+        if (detector.isSpeech(samples, count)) {
+            for (short[] frame : preRoll) target.onFrame(frame, frame.length);
+            preRoll.clear();
+            preRollSamples = 0;
+            silenceSamples = 0;
+            speechDetected = true;
+            target.onFrame(samples, count);
+            return;
+        }
+
+        silenceSamples += count;
+        if (silenceSamples <= (long) HANGOVER_MS * sampleRate / 1000) {
+            target.onFrame(samples, count);
+            return;
+        }
+
+        // within a long pause only the most recent frames are kept as pre-roll for the next speech
+        short[] frame = new short[count];
+        System.arraycopy(samples, 0, frame, 0, count);
+        preRoll.addLast(frame);
+        preRollSamples += count;
+        while (preRollSamples > (long) PRE_ROLL_MS * sampleRate / 1000) {
+            short[] oldest = preRoll.removeFirst();
+            preRollSamples -= oldest.length;
+            droppedSamples += oldest.length;
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        droppedSamples += preRollSamples;  // trailing silence
+        preRoll.clear();
+        preRollSamples = 0;
+        target.onStop();
+    }
+
+    /**
+     * @return Whether any speech was detected since the start of the recording
+     */
+    public boolean hasSpeech() {
+        return speechDetected;
+    }
+
+    /**
+     * @return The amount of audio that was removed in milliseconds
+     */
+    public long getTrimmedMillis() {
+        return sampleRate == 0 ? 0 : droppedSamples * 1000 / sampleRate;
+    }
+}
@@ -0,0 +1,46 @@
+package net.devemperor.dictate.audio;
+
+/**
+ * Simple energy and zero-crossing based voice activity detection for 16 bit PCM frames.
+ * A frame counts as speech if it is loud enough and its zero-crossing rate is in the range of voiced
+ * speech, or if it is clearly louder than the threshold (fricatives have a high zero-crossing rate).
+ */
+public class VoiceActivityDetector {
+
+    public static final float DEFAULT_THRESHOLD = 0.01f;  // RMS, about -40 dBFS
+
+    private static final float MAX_VOICED_ZCR = 0.25f;
+    private static final float LOUD_FACTOR = 3f;
+
+    private final float threshold;
+
+    /**
+     * @param threshold The RMS level (0..1) above which a frame can be speech
+     */
+    public VoiceActivityDetector(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Maps the value of the sensitivity setting (1..10) to an RMS threshold, 5 is the default threshold
+     */
+    public static float thresholdFromSetting(int setting) {
+        return DEFAULT_THRESHOLD * setting / 5f;
+    }
+
+    public boolean isSpeech(short[] samples, int count) {
+        if (count < 2) return false;
+
+        long sumSquares = 0;
+        int zeroCrossings = 0;
+        for (int i = 0; i < count; i++) {
+            sumSquares += (long) samples[i] * samples[i];
+            if (i > 0 && (samples[i] >= 0) != (samples[i - 1] >= 0)) zeroCrossings++;
+        }
+        float rms = (float) (Math.sqrt((double) sumSquares / count) / Short.MAX_VALUE);
+        float zcr = (float) zeroCrossings / (count - 1);
+
+        if (rms < threshold) return false;
+        return zcr <= MAX_VOICED_ZCR || rms >= threshold * LOUD_FACTOR;
+    }
+}
@@ -0,0 +1,102 @@
+package net.devemperor.dictate.audio;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes the captured PCM uncompressed into a WAV file. The header sizes are patched on stop.
+ */
+public class WavFileWriter implements PcmConsumer {
+
+    private final File outputFile;
+    private OutputStream out;
+    private byte[] byteBuffer = new byte[0];
+    private long dataBytes = 0;
+
+    public WavFileWriter(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    @Override
+    public void onStart(int sampleRate) throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(outputFile), 32 * 1024);
+        out.write(createHeader(sampleRate, 0));
+        dataBytes = 0;
+    }
+
+    @Override
+    public void onFrame(short[] samples, int count) throws IOException {
+        if (byteBuffer.length < count * 2) byteBuffer = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            byteBuffer[i * 2] = (byte) samples[i];
+            byteBuffer[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        out.write(byteBuffer, 0, count * 2);
+        dataBytes += count * 2L;
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        out.close();
+        try (RandomAccessFile raf = new RandomAccessFile(outputFile, "rw")) {
+            raf.seek(4);
+            raf.write(intToBytes((int) (36 + dataBytes)));
+            raf.seek(40);
+            raf.write(intToBytes((int) dataBytes));
+        }
+    }
+
+    /**
+     * Creates a canonical 44 byte header for mono 16 bit PCM
+     *
+     * @param sampleRate The sample rate of the audio
+     * @param dataBytes The size of the PCM data, use 0xFFFFFFFF (-1) if it is not known yet (streaming)
+     */
+    public static byte[] createHeader(int sampleRate, int dataBytes) {
+        byte[] header = new byte[44];
+        putAscii(header, 0, "RIFF");
+        putInt(header, 4, dataBytes == -1 ? -1 : 36 + dataBytes);
+        putAscii(header, 8, "WAVE");
+        putAscii(header, 12, "fmt ");
+        putInt(header, 16, 16);  // PCM chunk size
+        putShort(header, 20, (short) 1);  // PCM format
+        putShort(header, 22, (short) 1);  // mono
+        putInt(header, 24, sampleRate);
+        putInt(header, 28, sampleRate * 2);  // byte rate
+        putShort(header, 32, (short) 2);  // block align
+        putShort(header, 34, (short) 16);  // bits per sample
+        putAscii(header, 36, "data");
+        putInt(header, 40, dataBytes);
+        return header;
+    }
+
+    private static byte[] intToBytes(int value) {
+        byte[] bytes = new byte[4];
+        putInt(bytes, 0, value);
+        return bytes;
+    }
+
+    private static void putAscii(byte[] target, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) target[offset + i] = (byte) value.charAt(i);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >> 8);
+        target[offset + 2] = (byte) (value >> 16);
+        target[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static void putShort(byte[] target, int offset, short value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >> 8);
+    }
+}
@@ -0,0 +1,165 @@
+package net.devemperor.dictate.core;
+
+import android.icu.text.BreakIterator;
+import android.os.Handler;
+import android.text.TextUtils;
+import android.view.ViewConfiguration;
+import android.view.inputmethod.InputConnection;
+
+import java.util.function.Supplier;
+
+/**
+ * Deletes text before the cursor for the backspace button. Only a small window before the cursor is read with
+ * getTextBeforeCursor, never the whole document, and the grapheme (e.g. an emoji), word or sentence boundary
+ * is computed within that window. While the button is held, deletion repeats and accelerates from graphemes
+ * to words after {@link #GRAPHEMES_BEFORE_WORDS} steps and to sentences after {@link #WORDS_BEFORE_SENTENCES} more.
+ * Has to be used on the main thread.
+ */
+class BackspaceEngine {
+
+    private static final int GRAPHEME_WINDOW = 32;  // longer than any emoji sequence
+    private static final int WORD_WINDOW = 128;
+    private static final int SENTENCE_WINDOW = 512;
+
+    private static final long REPEAT_INTERVAL_MS = 50;
+    private static final long WORD_INTERVAL_MS = 120;
+    private static final long SENTENCE_INTERVAL_MS = 250;
+    private static final int GRAPHEMES_BEFORE_WORDS = 20;
+    private static final int WORDS_BEFORE_SENTENCES = 8;
+
+    private enum Unit { GRAPHEME, WORD, SENTENCE }
+
+    private final Supplier<InputConnection> inputConnectionSupplier;
+    private final Handler handler;
+    private final BreakIterator graphemes = BreakIterator.getCharacterInstance();
+    private final BreakIterator words = BreakIterator.getWordInstance();
+    private final BreakIterator sentences = BreakIterator.getSentenceInstance();
+
+    private final Runnable repeatRunnable = this::repeat;
+    private boolean repeating = false;
+    private int repeatCount = 0;
+
+    /**
+     * @param inputConnectionSupplier Returns the InputConnection to delete from, it is requested again for every step
+     * @param handler A handler of the main thread, used to schedule the repetitions
+     */
+    BackspaceEngine(Supplier<InputConnection> inputConnectionSupplier, Handler handler) {
+        this.inputConnectionSupplier = inputConnectionSupplier;
+        this.handler = handler;
+    }
+
+    /**
+     * Deletes the selection or, if nothing is selected, the grapheme before the cursor
+     */
+    void deleteOnce() {
+        InputConnection inputConnection = inputConnectionSupplier.get();
+        if (inputConnection == null) return;
+        inputConnection.beginBatchEdit();
+        try {
+            delete(inputConnection, Unit.GRAPHEME);
+        } finally {
+            inputConnection.endBatchEdit();
+        }
+    }
+
+    /**
+     * Starts repeating after the long press timeout, called when the button is pressed
+     */
+    void startRepeat() {
+        stopRepeat();
+        repeating = true;
+        handler.postDelayed(repeatRunnable, ViewConfiguration.getLongPressTimeout());
+    }
+
+    /**
+     * @return Whether at least one repetition was done, then the click of the button must not delete again
+     */
+    boolean stopRepeat() {
+        handler.removeCallbacks(repeatRunnable);
+        boolean repeated = repeating && repeatCount > 0;
+        repeating = false;
+        repeatCount = 0;
+        return repeated;
+    }
+
+    /**
+     * @return Whether the button was held long enough that deletion is repeating
+     */
+    boolean hasRepeated() {
+        return repeating && repeatCount > 0;
+    }
+
+    private void repeat() {
+        if (!repeating) return;
+        InputConnection inputConnection = inputConnectionSupplier.get();
+        if (inputConnection == null) {
+            stopRepeat();
+            return;
+        }
+
+        Unit unit = currentUnit();
+        repeatCount++;
+        inputConnection.beginBatchEdit();
+        try {
+            delete(inputConnection, unit);
+        } finally {
+            inputConnection.endBatchEdit();
+        }
+        handler.postDelayed(repeatRunnable, unit == Unit.SENTENCE ? SENTENCE_INTERVAL_MS
+                : unit == Unit.WORD ? WORD_INTERVAL_MS : REPEAT_INTERVAL_MS);
+    }
+
+    private Unit currentUnit() {
+        if (repeatCount < GRAPHEMES_BEFORE_WORDS) return Unit.GRAPHEME;
+        if (repeatCount < GRAPHEMES_BEFORE_WORDS + WORDS_BEFORE_SENTENCES) return Unit.WORD;
+        return Unit.SENTENCE;
+    }
+
+    private void delete(InputConnection inputConnection, Unit unit) {
+        CharSequence selected = inputConnection.getSelectedText(0);
+        if (!TextUtils.isEmpty(selected)) {
+            inputConnection.commitText("", 1);
+            return;
+        }
+
+        int window = unit == Unit.SENTENCE ? SENTENCE_WINDOW : unit == Unit.WORD ? WORD_WINDOW : GRAPHEME_WINDOW;
+        CharSequence before = inputConnection.getTextBeforeCursor(window, 0);
+        if (before == null) {
+            inputConnection.deleteSurroundingText(1, 0);  // the editor doesn't report its text
+            return;
+        }
+        if (before.length() == 0) return;
+
+        String text = before.toString();
+        int start;
+        switch (unit) {
+            case SENTENCE:
+                start = previousBoundary(sentences, text, trimTrailingWhitespace(text));
+                break;
+            case WORD:
+                start = previousBoundary(words, text, trimTrailingWhitespace(text));
+                break;
+            default:
+                start = previousBoundary(graphemes, text, text.length());
+                break;
+        }
+        inputConnection.deleteSurroundingText(text.length() - start, 0);
+    }
+
+    /**
+     * @param end The position to search back from, trailing whitespace is deleted together with the word or sentence
+     * @return The last boundary before end, 0 if the window contains none, then the whole window is deleted
+     */
+    private static int previousBoundary(BreakIterator iterator, String text, int end) {
+        if (end == 0) return 0;  // only whitespace in the window
+        iterator.setText(text);
+        int start = iterator.preceding(end);
+        return start == BreakIterator.DONE ? 0 : start;
+    }
+
+    private static int trimTrailingWhitespace(String text) {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) end--;
+        return end;
+    }
+}
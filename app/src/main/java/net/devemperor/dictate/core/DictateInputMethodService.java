@@ -39,7 +39,6 @@ import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
-import android.util.Base64;
 
 import androidx.appcompat.content.res.AppCompatResources;
 import androidx.constraintlayout.widget.ConstraintLayout;
@@ -53,46 +52,76 @@ import com.google.android.material.button.MaterialButton;
 //import com.google.firebase.crashlytics.FirebaseCrashlytics;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.client.OpenAIClient;
+import com.openai.core.http.HttpResponseFor;
+import com.openai.core.http.StreamResponse;
 import com.openai.models.audio.AudioResponseFormat;
 import com.openai.models.audio.transcriptions.Transcription;
 import com.openai.models.audio.transcriptions.TranscriptionCreateParams;
+import com.openai.models.audio.transcriptions.TranscriptionCreateResponse;
 import com.openai.models.chat.completions.ChatCompletion;
+import com.openai.models.chat.completions.ChatCompletionChunk;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
-import com.openai.models.chat.completions.ChatCompletionContentPart;
-import com.openai.models.chat.completions.ChatCompletionContentPartImage;
-import com.openai.models.chat.completions.ChatCompletionContentPartText;
+import com.openai.models.chat.completions.ChatCompletionStreamOptions;
 
 
 import net.devemperor.dictate.BuildConfig;
+import net.devemperor.dictate.DictateConfig;
 import net.devemperor.dictate.DictateUtils;
+import net.devemperor.dictate.PipelineTracer;
+import net.devemperor.dictate.audio.AudioEncoding;
+import net.devemperor.dictate.audio.AudioFileEncoder;
+import net.devemperor.dictate.audio.AudioCaptureEngine;
+import net.devemperor.dictate.audio.PcmConsumer;
+import net.devemperor.dictate.audio.SilenceSegmenter;
+import net.devemperor.dictate.audio.SilenceTrimmer;
+import net.devemperor.dictate.audio.VoiceActivityDetector;
+import net.devemperor.dictate.api.AdaptiveTimeouts;
+import net.devemperor.dictate.api.ChunkedTranscriptionSession;
+import net.devemperor.dictate.api.ConnectionPrewarmer;
+import net.devemperor.dictate.api.JobQueue;
+import net.devemperor.dictate.api.LatencyHistogram;
+import net.devemperor.dictate.api.OpenAIClientPool;
+import net.devemperor.dictate.api.ProgressiveUpload;
+import net.devemperor.dictate.api.RewordingCache;
+import net.devemperor.dictate.api.TracingHttpClient;
+import net.devemperor.dictate.api.TranscriptionCache;
+import net.devemperor.dictate.api.TranscriptionFailover;
+import net.devemperor.dictate.api.VisionRequest;
 import net.devemperor.dictate.rewording.PromptModel;
 import net.devemperor.dictate.rewording.PromptEditActivity;
-import net.devemperor.dictate.rewording.PromptsDatabaseHelper;
+import net.devemperor.dictate.rewording.PromptRepository;
 import net.devemperor.dictate.rewording.PromptsKeyboardAdapter;
 import net.devemperor.dictate.rewording.PromptsOverviewActivity;
 import net.devemperor.dictate.settings.AccessibilityDialogActivity;
 import net.devemperor.dictate.settings.DictateSettingsActivity;
 import net.devemperor.dictate.R;
 import net.devemperor.dictate.usage.UsageDatabaseHelper;
+import net.devemperor.dictate.usage.UsageEvent;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // MAIN CLASS
 public class DictateInputMethodService extends InputMethodService {
@@ -108,6 +137,7 @@ public class DictateInputMethodService extends InputMethodService {
     private boolean isRecording = false;
     private boolean isPaused = false;
     private boolean instantPrompt = false;
+    private boolean forceTranscription = false;
     private boolean vibrationEnabled = true;
     private boolean audioFocusEnabled = true;
     private MaterialButton selectedCharacter = null;
@@ -119,6 +149,8 @@ public class DictateInputMethodService extends InputMethodService {
     private int selectedWordCount = 0; // Anzahl der selektierten Wörter
     private int initialCursorPosition = 0; // Initiale Cursorposition beim Drücken
     private float startXPosition = 0; // Startposition des Swipes
+    private WordBoundaryIndex wordBoundaryIndex; // Wortanfänge vor dem Cursor, einmal pro Swipe erstellt
+    private int cursorPosition = -1; // Cursorposition laut onUpdateSelection, -1 wenn unbekannt
     private static final int SWIPE_THRESHOLD_PER_WORD = 80; // Pixel pro Wort
 
     // Flag to switch IME after transcription
@@ -133,14 +165,23 @@ public class DictateInputMethodService extends InputMethodService {
     // Flag, ob die Tastatur bereits sichtbar war
     private boolean keyboardWasVisible = false;
 
-    private MediaRecorder recorder;
+    private AudioCaptureEngine recorder;
+    private ChunkedTranscriptionSession chunkedSession;
+    private ProgressiveUpload progressiveUpload;
+    private SilenceTrimmer silenceTrimmer;
     private ExecutorService speechApiThread;
     private ExecutorService rewordingApiThread;
+    private TextOutputEngine textOutputEngine;
+    private BackspaceEngine backspaceEngine;
+    private volatile boolean rewordingCancelled = false;
+    private volatile int rewordingOutput = 0;  // the output of the streamed rewording, see TextOutputEngine#begin
     private File audioFile;
+    private AudioEncoding recordingEncoding = AudioEncoding.AAC;
     private Vibrator vibrator;
     private SharedPreferences sp;
     private AudioManager am;
     private AudioFocusRequest audioFocusRequest;
+    private ConnectionPrewarmer connectionPrewarmer;
     //private MaterialButton selectedCharacter = null;
 
     // define views
@@ -164,11 +205,23 @@ public class DictateInputMethodService extends InputMethodService {
     private LinearLayout overlayCharactersLl;
     //private MaterialButton selectedCharacter = null;
 
-    PromptsDatabaseHelper promptsDb;
+    PromptRepository promptRepository;
     PromptsKeyboardAdapter promptsAdapter;
+    private final PromptRepository.Listener promptsListener = prompts -> {
+        if (promptsAdapter != null) promptsAdapter.submitPrompts(prompts);
+    };
 
     UsageDatabaseHelper usageDb;
 
+    // results of queued requests are only typed into the field which started them
+    private final JobQueue.ResultTarget queuedResultTarget = (job, text) -> {
+        EditorInfo editorInfo = getCurrentInputEditorInfo();
+        if (!isInputViewShown() || editorInfo == null || getCurrentInputConnection() == null
+                || !Objects.equals(editorInfo.packageName, job.getTargetPackage()) || editorInfo.fieldId != job.getTargetFieldId()) return false;
+        outputText(text, false);
+        return true;
+    };
+
     /**
      * Bluetooth related variables and methods
      */
@@ -197,11 +250,12 @@ public class DictateInputMethodService extends InputMethodService {
         if (mainHandler == null) mainHandler = new Handler(Looper.getMainLooper());
         if (deleteHandler == null) deleteHandler = new Handler();
         if (recordTimeHandler == null) recordTimeHandler = new Handler(Looper.getMainLooper());
+        if (backspaceEngine == null) backspaceEngine = new BackspaceEngine(this::getCurrentInputConnection, deleteHandler);
 
         vibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);
         sp = getSharedPreferences("net.devemperor.dictate", MODE_PRIVATE);
-        promptsDb = new PromptsDatabaseHelper(this);
-        usageDb = new UsageDatabaseHelper(this);
+        promptRepository = PromptRepository.getInstance(this);
+        usageDb = UsageDatabaseHelper.getInstance(this);
         vibrationEnabled = sp.getBoolean("net.devemperor.dictate.vibration", true);
         currentInputLanguagePos = sp.getInt("net.devemperor.dictate.input_language_pos", 0);
 
@@ -245,6 +299,8 @@ public class DictateInputMethodService extends InputMethodService {
         promptsRv = dictateKeyboardView.findViewById(R.id.prompts_keyboard_rv);
         runningPromptPb = dictateKeyboardView.findViewById(R.id.prompts_keyboard_running_pb);
         runningPromptTv = dictateKeyboardView.findViewById(R.id.prompts_keyboard_running_prompt_tv);
+        runningPromptTv.setOnClickListener(v -> cancelRewording());  // stops a (streaming) rewording
+        runningPromptPb.setOnClickListener(v -> cancelRewording());
 
         editSelectAllButton = dictateKeyboardView.findViewById(R.id.edit_select_all_btn);
         MaterialButton editUndoButton = dictateKeyboardView.findViewById(R.id.edit_undo_btn);
@@ -356,9 +412,19 @@ public class DictateInputMethodService extends InputMethodService {
             startWhisperApiRequest();
         });
 
+        // a long click ignores the cached transcript, e.g. if it was wrong
+        resendButton.setOnLongClickListener(v -> {
+            vibrate();
+            if (audioFile == null)
+                audioFile = getLastAudioFile();
+            forceTranscription = true;
+            startWhisperApiRequest();
+            return true;
+        });
+
         backspaceButton.setOnClickListener(v -> {
             vibrate();
-            deleteOneCharacter();
+            backspaceEngine.deleteOnce();
         });
 
         backspaceButton.setOnTouchListener((v, event) -> {
@@ -366,33 +432,31 @@ public class DictateInputMethodService extends InputMethodService {
             if (inputConnection != null) {
                 switch (event.getAction()) {
                     case MotionEvent.ACTION_DOWN:
-                        // Speichere die initiale Cursorposition
-                        ExtractedText extractedText = inputConnection.getExtractedText(new ExtractedTextRequest(), 0);
-                        if (extractedText != null) {
-                            initialCursorPosition = extractedText.startOffset + extractedText.selectionStart;
-                        } else {
-                            // Fallback: Hole die aktuelle Cursorposition
-                            CharSequence textBeforeCursor = inputConnection.getTextBeforeCursor(0, 0);
-                            initialCursorPosition = textBeforeCursor != null ? textBeforeCursor.length() : 0;
-                        }
+                        // Speichere die initiale Cursorposition und die Wortanfänge davor, ohne das ganze Feld zu lesen
+                        wordBoundaryIndex = WordBoundaryIndex.build(inputConnection, cursorPosition);
+                        initialCursorPosition = wordBoundaryIndex.getCursor();
                         selectedWordCount = 0;
                         startXPosition = event.getX();
                         backspaceButton.setTag(startXPosition);
+                        backspaceEngine.startRepeat();  // holding the button deletes characters, then words, then sentences
                         break;
 
                     case MotionEvent.ACTION_MOVE:
+                        if (backspaceEngine.hasRepeated() || wordBoundaryIndex == null) break;  // no word selection while deleting repeatedly
                         float startX = (float) backspaceButton.getTag();
                         float currentX = event.getX();
                         float deltaX = currentX - startX;
 
                         // Berechne die Anzahl der zu selektierenden Wörter basierend auf der Wischdistanz
                         if (deltaX < -30) { // Mindestens 30px nach links
+                            backspaceEngine.stopRepeat();
                             int wordsToSelect = Math.abs((int) (deltaX / SWIPE_THRESHOLD_PER_WORD)) + 1; // +1, damit auch bei kurzen Swipes ein Wort selektiert wird
+                            wordsToSelect = Math.min(wordsToSelect, wordBoundaryIndex.size()); // nicht weiter als bis zum ersten Wort
 
                             // Nur aktualisieren, wenn sich die Anzahl geändert hat
-                            if (wordsToSelect != selectedWordCount) {
+                            if (wordsToSelect > 0 && wordsToSelect != selectedWordCount) {
                                 selectedWordCount = wordsToSelect;
-                                selectWords(inputConnection, selectedWordCount);
+                                inputConnection.setSelection(wordBoundaryIndex.selectionStart(selectedWordCount), initialCursorPosition);
                             }
                         } else if (selectedWordCount > 0) {
                             // Zurücksetzen der Selektion, wenn nicht mehr nach links gewischt wird
@@ -401,7 +465,13 @@ public class DictateInputMethodService extends InputMethodService {
                         }
                         break;
 
+                    case MotionEvent.ACTION_CANCEL:
+                        backspaceEngine.stopRepeat();
+                        break;
+
                     case MotionEvent.ACTION_UP:
+                        if (backspaceEngine.stopRepeat()) return true;  // the held button already deleted, no extra click
+
                         // Lösche den selektierten Text beim Loslassen
                         if (selectedWordCount > 0) {
                             inputConnection.commitText("", 1);
@@ -487,6 +557,8 @@ public class DictateInputMethodService extends InputMethodService {
                     recordTimeHandler.removeCallbacks(recordTimeRunnable);
                 }
             }
+            cancelChunkedSession();
+            cancelProgressiveUpload();
             if (audioFocusEnabled)
                 am.abandonAudioFocusRequest(audioFocusRequest);
 
@@ -786,6 +858,11 @@ public class DictateInputMethodService extends InputMethodService {
 
         if (speechApiThread != null) speechApiThread.shutdownNow();
         if (rewordingApiThread != null) rewordingApiThread.shutdownNow();
+        rewordingCancelled = true;
+        if (textOutputEngine != null) textOutputEngine.cancel();
+        if (connectionPrewarmer != null) connectionPrewarmer.cancel();
+        cancelChunkedSession();
+        cancelProgressiveUpload();
 
         // Clean up handlers and runnables
         if (recordTimeHandler != null && recordTimeRunnable != null) {
@@ -794,6 +871,7 @@ public class DictateInputMethodService extends InputMethodService {
         if (mainHandler != null) {
             mainHandler.removeCallbacksAndMessages(null);
         }
+        if (backspaceEngine != null) backspaceEngine.stopRepeat();
         if (deleteHandler != null) {
             deleteHandler.removeCallbacksAndMessages(null);
         }
@@ -840,11 +918,16 @@ public class DictateInputMethodService extends InputMethodService {
     public void onStartInputView(EditorInfo info, boolean restarting)
     {
         super.onStartInputView(info, restarting);
+        cursorPosition = info.initialSelStart;
+        PipelineTracer.setEnabled(DictateConfig.get(this).isTracingEnabled());
 
         // Setze imeJustBound nur, wenn die Tastatur nicht bereits sichtbar war
         if (!keyboardWasVisible)
             imeJustBound = true;
 
+        // open the connections to the API hosts while the user is still thinking about what to say
+        if (connectionPrewarmer != null) connectionPrewarmer.prewarm();
+
         // Start Bluetooth receiver and check initial state
         registerBluetoothReceiver();
         checkInitialBluetoothState();
@@ -861,7 +944,7 @@ public class DictateInputMethodService extends InputMethodService {
 
         // Add a small delay before checking for instant recording to ensure proper initialization
         mainHandler.postDelayed(() -> {
-            if (sp.getBoolean("net.devemperor.dictate.rewording_enabled", true)) {
+            if (DictateConfig.get(this).isRewordingEnabled()) {
                 promptsCl.setVisibility(View.VISIBLE);
 
                 // collect all prompts from database
@@ -869,7 +952,7 @@ public class DictateInputMethodService extends InputMethodService {
                 // Improve text selection detection
 
                 // No text selected, show all instant prompts and set select all icon
-                data = promptsDb.getAllToDisplay();
+                data = new ArrayList<>(promptRepository.getPrompts());  // in-memory snapshot, updated by promptsListener
                 editSelectAllButton.setForeground(AppCompatResources.getDrawable(this, R.drawable.ic_baseline_select_all_24));
 
                 promptsAdapter = new PromptsKeyboardAdapter(data, position -> {
@@ -936,7 +1019,9 @@ public class DictateInputMethodService extends InputMethodService {
                                 selectedText = ""; // proceed with empty text
                         }
 
-                        startGPTApiRequest(model, selectedText);  // another normal prompt clicked
+                        // the capture runs while the request is prepared, only once it is certain to be sent
+                        CompletableFuture<DictateUtils.Screenshot> screenshot = startScreenshot(this, DictateConfig.get(this), model);
+                        startGPTApiRequest(model, selectedText, screenshot);  // another normal prompt clicked
                     }
                 }, position -> { // Longpress Callback Handler
                     vibrate();
@@ -985,7 +1070,7 @@ public class DictateInputMethodService extends InputMethodService {
 
             // enable resend button if previous audio file still exists in cache
             if (getLastAudioFile().exists() 
-                    && sp.getBoolean("net.devemperor.dictate.resend_button", false) && !isRecording) {
+                    && DictateConfig.get(this).isResendButton() && !isRecording) {
                 resendButton.setVisibility(View.VISIBLE);
             } else {
                 resendButton.setVisibility(View.GONE);
@@ -1056,22 +1141,14 @@ public class DictateInputMethodService extends InputMethodService {
     }
 
     // method is called if user changed text selection
-    @SuppressLint("NotifyDataSetChanged")
     @Override
     public void onUpdateSelection (int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd, candidatesStart, candidatesEnd);
+        cursorPosition = newSelStart;
 
-        // refill all prompts
-        if (sp != null && sp.getBoolean("net.devemperor.dictate.rewording_enabled", true) && promptsDb != null && promptsAdapter != null) {
-            List<PromptModel> data;
-
-            // Always show all instant prompts even if no text is selected
-            data = promptsDb.getAllToDisplay();
+        // the prompts themselves don't depend on the selection, they are updated by the PromptRepository on changes
+        if (promptsAdapter != null && DictateConfig.get(this).isRewordingEnabled()) {
             editSelectAllButton.setForeground(AppCompatResources.getDrawable(this, R.drawable.ic_baseline_select_all_24));
-
-            promptsAdapter.getData().clear();
-            promptsAdapter.getData().addAll(data);
-            promptsAdapter.notifyDataSetChanged();
         }
     }
 
@@ -1092,7 +1169,11 @@ public class DictateInputMethodService extends InputMethodService {
     private void startRecording() {
         if (isRecording) return;
 
-        audioFile = setLastAudioFile("audio.m4a");
+        // Opus needs about a third of the bytes of AAC, which matters most on slow mobile links
+        DictateConfig config = DictateConfig.get(this);
+        recordingEncoding = AudioEncoding.select(config.getAudioCodec(), config.getTranscription().getProvider());
+        audioFile = setLastAudioFile("audio." + recordingEncoding.getExtension());
+        if (connectionPrewarmer != null) connectionPrewarmer.prewarm();
 
         final boolean useBluetoothMicPref = sp.getBoolean("net.devemperor.dictate.use_bluetooth_mic", true);
         final boolean headsetConnected = isBluetoothHeadsetConnected;
@@ -1148,17 +1229,35 @@ public class DictateInputMethodService extends InputMethodService {
 
     private void proceedWithRecordingSetup() {
         try {
-            recorder = new MediaRecorder();
-
-            // VOICE_RECOGNITION bevorzugt für HFP/Headset
-            recorder.setAudioSource(MediaRecorder.AudioSource.VOICE_RECOGNITION);
-            recorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-            recorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-            recorder.setAudioEncodingBitRate(64000);
-            recorder.setAudioSamplingRate(16000); // für ASR oft stabiler; 44100 geht auch
-            recorder.setOutputFile(audioFile.getAbsolutePath());
-
-            recorder.prepare();
+            DictateConfig config = DictateConfig.get(this);
+            // VOICE_RECOGNITION bevorzugt für HFP/Headset, 16 kHz ist für ASR oft stabiler
+            recorder = new AudioCaptureEngine(MediaRecorder.AudioSource.VOICE_RECOGNITION, AudioCaptureEngine.SAMPLE_RATE);
+            PcmConsumer encoder = new AudioFileEncoder(audioFile, recordingEncoding);
+            silenceTrimmer = null;
+            if (config.isVadEnabled()) {
+                // leading/trailing silence and long pauses never reach the encoder, so they are not uploaded
+                silenceTrimmer = new SilenceTrimmer(encoder, new VoiceActivityDetector(config.getVadThreshold()));
+                encoder = silenceTrimmer;
+            }
+            recorder.addConsumer(encoder);
+
+            // transcribe the recording in segments while the user is still speaking
+            cancelChunkedSession();
+            cancelProgressiveUpload();
+            if (config.isChunkedTranscription()) {
+                ChunkedTranscriptionSession session = new ChunkedTranscriptionSession(this, usageDb, currentInputLanguageValue, getStylePrompt());
+                recorder.addConsumer(new SilenceSegmenter(new File(getCacheDir(), "segments"), session::submit));
+                chunkedSession = session;
+            } else if (config.isProgressiveUpload() && ProgressiveUpload.isSupported(config)) {
+                // stream the recording to the server while it is recorded, the file is still written for the fallback
+                ProgressiveUpload upload = new ProgressiveUpload(this, config, usageDb, currentInputLanguageValue, getStylePrompt());
+                PcmConsumer uploadConsumer = upload;
+                if (silenceTrimmer != null) {
+                    uploadConsumer = new SilenceTrimmer(upload, new VoiceActivityDetector(config.getVadThreshold()));  // same cuts as in the file
+                }
+                recorder.addConsumer(uploadConsumer);
+                progressiveUpload = upload;
+            }
             recorder.start();
 
             // UI erst jetzt aktualisieren
@@ -1188,6 +1287,8 @@ public class DictateInputMethodService extends InputMethodService {
             Log.e("DictateInputMethodService", "Recorder start failed", e);
             // Aufräumen
             safeReleaseRecorder();
+            cancelChunkedSession();
+            cancelProgressiveUpload();
             // Audio-Mode/Focus zurück
             try { am.setMode(AudioManager.MODE_NORMAL); } catch (Exception ignore) {}
             if (audioFocusEnabled) am.abandonAudioFocusRequest(audioFocusRequest);
@@ -1211,15 +1312,12 @@ public class DictateInputMethodService extends InputMethodService {
     {
         if (recorder != null)
         {
-            try {
-                recorder.stop();
-                Log.d("DictateInputMethodService", "Recording stopped successfully");
-            } catch (RuntimeException e) {
-                Log.w("DictateInputMethodService", "Error stopping recording: " + e.getMessage());
-                // This can happen if recording was too short or other issues
-            }
+            // only the microphone is stopped here, the recording is finalized on the speech thread
+            AudioCaptureEngine stoppedRecorder = recorder;
+            stoppedRecorder.stopCapture();
+            recorder = null;
+            Log.d("DictateInputMethodService", "Recording stopped successfully");
 
-            safeReleaseRecorder();
             if (recordTimeRunnable != null)
                 recordTimeHandler.removeCallbacks(recordTimeRunnable);
 
@@ -1233,7 +1331,7 @@ public class DictateInputMethodService extends InputMethodService {
             stopSwitchButton.setVisibility(View.GONE);
             recordButton.setVisibility(View.VISIBLE);
 
-            startWhisperApiRequest();
+            startWhisperApiRequest(stoppedRecorder);
         } else {
             Log.w("DictateInputMethodService", "stopRecording called but recorder is null");
         }
@@ -1247,6 +1345,14 @@ public class DictateInputMethodService extends InputMethodService {
     }
 
     private void startWhisperApiRequest() {
+        startWhisperApiRequest(null);
+    }
+
+    /**
+     * @param stoppedRecorder The recorder which was just stopped, null when an existing recording is sent again.
+     *                        It is finished on the speech thread before the recording is sent.
+     */
+    private void startWhisperApiRequest(AudioCaptureEngine stoppedRecorder) {
         recordButton.setText(R.string.dictate_sending);
         recordButton.setCompoundDrawablesRelativeWithIntrinsicBounds(R.drawable.ic_baseline_send_20, 0, 0, 0);
         recordButton.setEnabled(false);
@@ -1268,17 +1374,19 @@ public class DictateInputMethodService extends InputMethodService {
         if (audioFocusEnabled)
             am.abandonAudioFocusRequest(audioFocusRequest);
 
-        String stylePrompt;
-        switch (sp.getInt("net.devemperor.dictate.style_prompt_selection", 1)) {
-            case 1:
-                stylePrompt = DictateUtils.PROMPT_PUNCTUATION_CAPITALIZATION;
-                break;
-            case 2:
-                stylePrompt = sp.getString("net.devemperor.dictate.style_prompt_custom_text", "");
-                break;
-            default:
-                stylePrompt = "";
-        }
+        final DictateConfig config = DictateConfig.get(this);  // one snapshot for the whole request
+        String stylePrompt = config.getStylePrompt();
+        final File recording = audioFile;
+        final EditorInfo target = getCurrentInputEditorInfo();
+        final int cacheMode = forceTranscription ? TranscriptionCache.MODE_REFRESH : TranscriptionCache.MODE_USE;
+        forceTranscription = false;
+
+        // segments of the recording may already be transcribed, then only the tail has to be awaited
+        final ChunkedTranscriptionSession session = chunkedSession;
+        chunkedSession = null;
+        final ProgressiveUpload upload = progressiveUpload;
+        progressiveUpload = null;
+        final SilenceTrimmer trimmer = silenceTrimmer;
 
         // Shutdown any existing thread before creating a new one
         if (speechApiThread != null && !speechApiThread.isShutdown()) {
@@ -1287,10 +1395,59 @@ public class DictateInputMethodService extends InputMethodService {
         speechApiThread = Executors.newSingleThreadExecutor();
         speechApiThread.execute(() -> {
             try {
+                if (stoppedRecorder != null) {
+                    // waits for the last samples and finalizes the file, the segments and the streamed upload
+                    long stopSpan = PipelineTracer.begin(PipelineTracer.RECORDER_STOP);
+                    stoppedRecorder.release();
+                    PipelineTracer.end(stopSpan);
+
+                    if (stoppedRecorder.hasDroppedAudio()) {
+                        // a transcript with gaps would be silently wrong, so the recording is not sent
+                        Log.w("DictateInputMethodService", stoppedRecorder.getDroppedMillis() + " ms of audio were dropped, recording is not sent");
+                        if (session != null) session.cancel();
+                        if (upload != null) upload.cancel();
+                        mainHandler.post(() -> showInfo("audio_dropped"));
+                        return;
+                    }
+
+                    if (trimmer != null && !trimmer.hasSpeech()) {
+                        Log.d("DictateInputMethodService", "No speech detected, recording is not sent");
+                        if (session != null) session.cancel();
+                        if (upload != null) upload.cancel();
+                        mainHandler.post(() -> showInfo("no_speech"));
+                        return;
+                    }
+                }
+                final long trimmedSeconds = trimmer != null ? Math.round(trimmer.getTrimmedMillis() / 1000.0) : -1;
+
                 // Use the shared transcription function
-                String resultText;
+                String resultText = null;
+                if (session != null) {
+                    try {
+                        resultText = session.awaitResult(120);
+                    } catch (InterruptedException e) {
+                        session.cancel();
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(new InterruptedIOException("interrupted"));
+                    } catch (Exception e) {
+                        Log.w("DictateAPI", "Chunked transcription failed, sending the whole recording", e);
+                    }
+                }
+                if (upload != null) {
+                    try {
+                        resultText = upload.awaitTranscript(120, trimmedSeconds);
+                    } catch (InterruptedException e) {
+                        upload.cancel();
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(new InterruptedIOException("interrupted"));
+                    } catch (Exception e) {
+                        Log.w("DictateAPI", "Streamed upload failed, sending the whole recording", e);
+                    }
+                }
+
                 try {
-                    resultText = transcribeAudioFile(this, audioFile, usageDb, currentInputLanguageValue, stylePrompt);
+                    if (resultText == null)
+                        resultText = transcribeAudioFile(this, config, audioFile, usageDb, currentInputLanguageValue, stylePrompt, trimmedSeconds, cacheMode);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
@@ -1298,7 +1455,7 @@ public class DictateInputMethodService extends InputMethodService {
                 if (!instantPrompt)
                 {
                     // Prüfe, ob ein "alwaysUse" Prompt vorhanden ist
-                    PromptModel alwaysUsePrompt = temporaryAlwaysUsePrompt != null ? temporaryAlwaysUsePrompt : promptsDb.getAlwaysUsePrompt();
+                    PromptModel alwaysUsePrompt = temporaryAlwaysUsePrompt != null ? temporaryAlwaysUsePrompt : promptRepository.getAlwaysUsePrompt();
 
                     InputConnection inputConnection = getCurrentInputConnection();
                     if (inputConnection != null) {
@@ -1319,7 +1476,7 @@ public class DictateInputMethodService extends InputMethodService {
                 }
 
                 if (getLastAudioFile().exists()
-                        && sp.getBoolean("net.devemperor.dictate.resend_button", false) && !isRecording) {
+                        && DictateConfig.get(this).isResendButton() && !isRecording) {
                     mainHandler.post(() -> resendButton.setVisibility(View.VISIBLE));
                 }
 
@@ -1327,7 +1484,10 @@ public class DictateInputMethodService extends InputMethodService {
                 // Detailliertes Logging des Fehlers
                 Log.e("DictateAPI", "Fehler bei der Transkriptionsanfrage", e);
 
-                if (!(e.getCause() instanceof InterruptedIOException)) {
+                if (config.isOfflineQueue() && JobQueue.isNetworkFailure(e) && !Thread.currentThread().isInterrupted()
+                        && enqueueOfflineTranscription(recording, stylePrompt, target)) {
+                    Log.d("DictateAPI", "Transkription in die Warteschlange gestellt");
+                } else if (!(e.getCause() instanceof InterruptedIOException)) {
                     sendLogToCrashlytics(e);
                     if (vibrationEnabled) vibrator.vibrate(VibrationEffect.createOneShot(300, VibrationEffect.DEFAULT_AMPLITUDE));
                     // Performance-Optimierung: Prüfung auf null bevor post aufgerufen wird
@@ -1367,20 +1527,72 @@ public class DictateInputMethodService extends InputMethodService {
                         });
                     }
                 }
-            }
-
-            if (mainHandler != null) {
-                mainHandler.post(() -> {
-                    recordButton.setText(getDictateButtonText());
-                    spaceButton.setText(getSpaceBarText());
-                    updateRecordButtonIcon();
-                    recordButton.setEnabled(true);
-                });
+            } finally {
+                if (mainHandler != null) {
+                    mainHandler.post(() -> {
+                        recordButton.setText(getDictateButtonText());
+                        spaceButton.setText(getSpaceBarText());
+                        updateRecordButtonIcon();
+                        recordButton.setEnabled(true);
+                    });
+                }
             }
         });
     }
 
+    /**
+     * Hands a transcription which failed because of the connection to the {@link JobQueue}, together with
+     * the prompt which would have been applied to it
+     *
+     * @return Whether it was queued, otherwise the error is shown as usual
+     */
+    private boolean enqueueOfflineTranscription(File recording, String stylePrompt, EditorInfo target) {
+        String promptText = null;
+        if (instantPrompt) {
+            promptText = INSTANT_PROMPT;
+            instantPrompt = false;
+        } else {
+            PromptModel alwaysUsePrompt = temporaryAlwaysUsePrompt != null ? temporaryAlwaysUsePrompt : promptRepository.getAlwaysUsePrompt();
+            if (alwaysUsePrompt != null) promptText = alwaysUsePrompt.getPrompt();
+        }
+
+        try {
+            JobQueue.getInstance(this).enqueueTranscription(recording, currentInputLanguageValue, stylePrompt, promptText,
+                    target != null ? target.packageName : null, target != null ? target.fieldId : 0);
+        } catch (IOException e) {
+            Log.e("DictateAPI", "Could not queue the recording", e);
+            return false;
+        }
+        if (mainHandler != null) mainHandler.post(() -> showInfo("queued"));
+        return true;
+    }
+
+    private String getStylePrompt() {
+        return DictateConfig.get(this).getStylePrompt();
+    }
+
+    private void cancelChunkedSession() {
+        if (chunkedSession != null) {
+            chunkedSession.cancel();
+            chunkedSession = null;
+        }
+    }
+
+    private void cancelProgressiveUpload() {
+        if (progressiveUpload != null) {
+            progressiveUpload.cancel();
+            progressiveUpload = null;
+        }
+    }
+
     private void startGPTApiRequest(PromptModel model, String selectedText) {
+        startGPTApiRequest(model, selectedText, null);
+    }
+
+    /**
+     * @param screenshot The screenshot already being captured for the prompt, null to take it when the request is built
+     */
+    private void startGPTApiRequest(PromptModel model, String selectedText, CompletableFuture<DictateUtils.Screenshot> screenshot) {
         mainHandler.post(() -> {
             promptsRv.setVisibility(View.GONE);
             runningPromptTv.setVisibility(View.VISIBLE);
@@ -1393,16 +1605,55 @@ public class DictateInputMethodService extends InputMethodService {
         if (rewordingApiThread != null && !rewordingApiThread.isShutdown()) {
             rewordingApiThread.shutdownNow();
         }
+        final EditorInfo target = getCurrentInputEditorInfo();
         rewordingApiThread = Executors.newSingleThreadExecutor();
         rewordingApiThread.execute(() -> {
+            long rewordingSpan = PipelineTracer.begin(PipelineTracer.REWORDING);
+            DictateConfig config = DictateConfig.get(this);
+            AtomicBoolean streamed = new AtomicBoolean(false);
+            AtomicInteger output = new AtomicInteger();
             try {
-                String rewordedText = performRewording(DictateInputMethodService.this, model, selectedText, usageDb);
-                outputText(rewordedText, shouldSwitchImeAfterTranscription);
+                if (config.isRewordingStreaming()) {
+                    // tokens are committed as they arrive, coalesced per frame
+                    final boolean switchIme = shouldSwitchImeAfterTranscription;
+                    rewordingCancelled = false;
+                    output.set(textOutputEngine.begin(getOutputCharsPerSecond()));
+                    rewordingOutput = output.get();
+                    String rewordedText = performRewording(DictateInputMethodService.this, config, model, selectedText, usageDb, screenshot, new RewordingStreamListener() {
+                        @Override
+                        public void onDelta(String delta) {
+                            if (delta.isEmpty()) return;
+                            streamed.set(true);
+                            textOutputEngine.append(delta);
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return rewordingCancelled || Thread.currentThread().isInterrupted();
+                        }
+                    });
+                    if (!streamed.get()) outputText(rewordedText, switchIme);  // fixed text prompts are not streamed
+                    else if (!rewordingCancelled) textOutputEngine.finish(() -> switchToPreviousImeIfRequested(switchIme));
+                } else {
+                    String rewordedText = performRewording(DictateInputMethodService.this, config, model, selectedText, usageDb, screenshot, null);
+                    outputText(rewordedText, shouldSwitchImeAfterTranscription);
+                }
             } catch (Exception e) {
                 // Detailliertes Logging des Fehlers
                 Log.e("DictateAPI", "Error during Rewording Request", e);
 
-                if (!(e.getCause() instanceof InterruptedIOException)) {
+                // a broken stream must not leave half an answer in the text field, the text it replaced is put back
+                if (streamed.get() && !rewordingCancelled && mainHandler != null) {
+                    mainHandler.post(() -> textOutputEngine.discard(output.get(), selectedText));  // posted before the error is shown
+                }
+
+                // partly streamed answers and screenshots can't be continued later
+                if (config.isOfflineQueue() && JobQueue.isNetworkFailure(e) && !Thread.currentThread().isInterrupted()
+                        && !streamed.get() && !model.isSendScreenshot()) {
+                    JobQueue.getInstance(this).enqueueRewording(selectedText, model.getPrompt(),
+                            target != null ? target.packageName : null, target != null ? target.fieldId : 0);
+                    if (mainHandler != null) mainHandler.post(() -> showInfo("queued"));
+                } else if (!(e.getCause() instanceof InterruptedIOException)) {
                     sendLogToCrashlytics(e);
                     if (vibrationEnabled) vibrator.vibrate(VibrationEffect.createOneShot(300, VibrationEffect.DEFAULT_AMPLITUDE));
                     // Performance-Optimierung: Prüfung auf null bevor post aufgerufen wird
@@ -1436,6 +1687,7 @@ public class DictateInputMethodService extends InputMethodService {
                     }
                 }
             }
+            PipelineTracer.end(rewordingSpan);
 
             if (mainHandler != null)
             {
@@ -1448,6 +1700,16 @@ public class DictateInputMethodService extends InputMethodService {
         });
     }
 
+    private void cancelRewording() {
+        rewordingCancelled = true;
+        if (textOutputEngine != null) textOutputEngine.cancel(rewordingOutput);  // a transcription still being typed is kept
+        if (rewordingApiThread != null) rewordingApiThread.shutdownNow();
+        promptsRv.setVisibility(View.VISIBLE);
+        runningPromptTv.setVisibility(View.GONE);
+        runningPromptPb.setVisibility(View.GONE);
+        Log.d("DictateAPI", "Rewording cancelled by user");
+    }
+
     private void sendLogToCrashlytics(Exception e) {
         // get all values from SharedPreferences and add them as custom keys to crashlytics
         /*FirebaseCrashlytics crashlytics = FirebaseCrashlytics.getInstance();
@@ -1475,23 +1737,25 @@ public class DictateInputMethodService extends InputMethodService {
     }
 
     private void outputText(String text, boolean switchIme) {
-        InputConnection inputConnection = getCurrentInputConnection();
-        if (inputConnection == null) return;
-
-        boolean instantOutputEnabled = sp.getBoolean("net.devemperor.dictate.instant_output", false);
-        if (instantOutputEnabled) {
-            inputConnection.commitText(text, 1);
-            if (switchIme) {
-                shouldSwitchImeAfterTranscription = false;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    switchToPreviousInputMethod();
-                }
-            }
-        } else {
-            int speed = sp.getInt("net.devemperor.dictate.output_speed", 5);
-            for (int i = 0; i < text.length(); i++) {
-                char character = text.charAt(i);
-                mainHandler.postDelayed(() -> inputConnection.commitText(String.valueOf(character), 1), (long) (i * (20L / (speed / 5f))));
+        if (getCurrentInputConnection() == null) return;
+
+        textOutputEngine.begin(getOutputCharsPerSecond());
+        textOutputEngine.append(text);
+        textOutputEngine.finish(() -> switchToPreviousImeIfRequested(switchIme));
+    }
+
+    /**
+     * @return The typing speed of the output animation, 0 if instant output is enabled
+     */
+    private float getOutputCharsPerSecond() {
+        return DictateConfig.get(this).getOutputCharsPerSecond();
+    }
+
+    private void switchToPreviousImeIfRequested(boolean switchIme) {
+        if (switchIme) {
+            shouldSwitchImeAfterTranscription = false;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                switchToPreviousInputMethod();
             }
         }
     }
@@ -1583,6 +1847,11 @@ public class DictateInputMethodService extends InputMethodService {
                 infoYesButton.setVisibility(View.GONE);
                 infoNoButton.setOnClickListener(v -> infoCl.setVisibility(View.GONE));
                 break;
+            case "queued":
+                infoTv.setText(R.string.dictate_queued_msg);
+                infoYesButton.setVisibility(View.GONE);
+                infoNoButton.setOnClickListener(v -> infoCl.setVisibility(View.GONE));
+                break;
             case "invalid_api_key":
                 infoTv.setText(R.string.dictate_invalid_api_key_msg);
                 infoYesButton.setVisibility(View.VISIBLE);
@@ -1618,6 +1887,16 @@ public class DictateInputMethodService extends InputMethodService {
                 infoYesButton.setVisibility(View.GONE);
                 infoNoButton.setOnClickListener(v -> infoCl.setVisibility(View.GONE));
                 break;
+            case "no_speech":
+                infoTv.setText(R.string.dictate_no_speech_msg);
+                infoYesButton.setVisibility(View.GONE);
+                infoNoButton.setOnClickListener(v -> infoCl.setVisibility(View.GONE));
+                break;
+            case "audio_dropped":
+                infoTv.setText(R.string.dictate_audio_dropped_msg);
+                infoYesButton.setVisibility(View.GONE);
+                infoNoButton.setOnClickListener(v -> infoCl.setVisibility(View.GONE));
+                break;
         }
     }
 
@@ -1646,109 +1925,6 @@ public class DictateInputMethodService extends InputMethodService {
         return currentInputLanguageValue.toUpperCase();
     }
 
-    private void deleteOneCharacter() {
-        InputConnection inputConnection = getCurrentInputConnection();
-        if (inputConnection != null) {
-            String selectedText = getUsersTextSelection(false);
-
-            if (selectedText != null) {
-                inputConnection.commitText("", 1);
-            } else {
-                // Use BreakIterator to properly handle Unicode grapheme clusters (like emojis)
-                ExtractedText extractedText = inputConnection.getExtractedText(new ExtractedTextRequest(), 0);
-                if (extractedText != null && extractedText.text != null && extractedText.text.length() > 0) {
-                    String text = extractedText.text.toString();
-                    java.text.BreakIterator iterator = java.text.BreakIterator.getCharacterInstance();
-                    iterator.setText(text);
-
-                    // Find the last grapheme cluster
-                    int end = iterator.last();
-                    int start = iterator.previous();
-
-                    // If we have a valid grapheme cluster, delete it
-                    if (start != java.text.BreakIterator.DONE && end != java.text.BreakIterator.DONE) {
-                        // Calculate how many Java characters (UTF-16 code units) to delete
-                        int charCount = end - start;
-                        inputConnection.deleteSurroundingText(charCount, 0);
-                    } else {
-                        // Fallback to deleting one character if BreakIterator fails
-                        inputConnection.deleteSurroundingText(1, 0);
-                    }
-                } else {
-                    // Fallback to deleting one character if no text is available
-                    inputConnection.deleteSurroundingText(1, 0);
-                }
-            }
-        }
-    }
-
-    private void selectWords(InputConnection inputConnection, int wordCount) {
-        // Hole den aktuellen Text vor der Cursor-Position
-        ExtractedText extractedText = inputConnection.getExtractedText(new ExtractedTextRequest(), 0);
-        if (extractedText != null && extractedText.text != null && extractedText.text.length() > 0) {
-            String text = extractedText.text.toString();
-            int cursorPosition = initialCursorPosition;
-
-            // Sicherstellen, dass die Cursorposition nicht außerhalb des Textes liegt
-            if (cursorPosition > text.length()) {
-                cursorPosition = text.length();
-            }
-
-            // Berechne die Startposition für die Selektion
-            int selectionStart = cursorPosition;
-            for (int i = 0; i < wordCount; i++) {
-                int wordStart = findWordStart(text, selectionStart);
-                if (wordStart >= 0 && wordStart < selectionStart) {
-                    selectionStart = wordStart;
-                } else {
-                    break; // Kein weiteres Wort gefunden
-                }
-            }
-
-            // Selektiere den Text vom Anfang des ersten Wortes bis zur ursprünglichen Cursorposition
-            inputConnection.setSelection(selectionStart, cursorPosition);
-        } else {
-            // Fallback: Verwende getTextBeforeCursor und getTextAfterCursor
-            CharSequence textBeforeCursor = inputConnection.getTextBeforeCursor(1000, 0);
-            if (textBeforeCursor != null) {
-                String text = textBeforeCursor.toString();
-                int cursorPosition = text.length();
-
-                // Berechne die Startposition für die Selektion
-                int selectionStart = cursorPosition;
-                for (int i = 0; i < wordCount; i++) {
-                    int wordStart = findWordStart(text, selectionStart);
-                    if (wordStart >= 0 && wordStart < selectionStart) {
-                        selectionStart = wordStart;
-                    } else {
-                        break; // Kein weiteres Wort gefunden
-                    }
-                }
-
-                // Selektiere den Text vom Anfang des ersten Wortes bis zur ursprünglichen Cursorposition
-                inputConnection.setSelection(selectionStart, cursorPosition);
-            }
-        }
-    }
-
-    private int findWordStart(String text, int position) {
-        // Finde den Anfang des letzten Wortes rückwärts von der Position
-        if (position <= 0) return -1;
-
-        // Überspringe Leerzeichen und Sonderzeichen am Ende
-        int i = position - 1;
-        while (i >= 0 && !Character.isLetterOrDigit(text.charAt(i))) {
-            i--;
-        }
-
-        // Finde den Anfang des Wortes (Buchstaben und Zahlen)
-        while (i >= 0 && Character.isLetterOrDigit(text.charAt(i))) {
-            i--;
-        }
-
-        return i + 1;
-    }
-
     // checks whether a point is inside a view based on its horizontal position
     private boolean isPointInsideView(float x, View view) {
         int[] location = new int[2];
@@ -1829,32 +2005,82 @@ public class DictateInputMethodService extends InputMethodService {
      * @return The transcribed text
      */
     public static String transcribeAudioFile(Context context, File audioFile, UsageDatabaseHelper usageDb, String language, String stylePrompt) {
-        SharedPreferences sp = context.getSharedPreferences("net.devemperor.dictate", Context.MODE_PRIVATE);
+        return transcribeAudioFile(context, audioFile, usageDb, language, stylePrompt, -1);
+    }
 
-        float transcriptionTemperature = sp.getFloat("net.devemperor.dictate.transcription_temperature", 0.0f);
-        int transcriptionProvider = sp.getInt("net.devemperor.dictate.transcription_provider", 0);
-        String apiHost = context.getResources().getStringArray(R.array.dictate_api_providers_values)[transcriptionProvider];
-        if (apiHost.equals("custom_server")) {
-            apiHost = sp.getString("net.devemperor.dictate.transcription_custom_host", context.getString(R.string.dictate_custom_server_host_hint));
-        }
+    /**
+     * Same as {@link #transcribeAudioFile(Context, File, UsageDatabaseHelper, String, String)}, but also records
+     * how much silence was removed from the recording before it was sent
+     *
+     * @param trimmedSeconds The removed silence in seconds, -1 if the recording was not trimmed
+     */
+    public static String transcribeAudioFile(Context context, File audioFile, UsageDatabaseHelper usageDb, String language, String stylePrompt, long trimmedSeconds) {
+        return transcribeAudioFile(context, DictateConfig.get(context), audioFile, usageDb, language, stylePrompt, trimmedSeconds);
+    }
 
-        String apiKey = sp.getString("net.devemperor.dictate.transcription_api_key", sp.getString("net.devemperor.dictate.api_key", "NO_API_KEY")).replaceAll("[^ -~]", "");
-        String proxyHost = sp.getString("net.devemperor.dictate.proxy_host", context.getString(R.string.dictate_settings_proxy_hint));
+    /**
+     * Same as {@link #transcribeAudioFile(Context, File, UsageDatabaseHelper, String, String, long)}, but with the
+     * settings snapshot taken when the request was started
+     */
+    public static String transcribeAudioFile(Context context, DictateConfig config, File audioFile, UsageDatabaseHelper usageDb, String language, String stylePrompt, long trimmedSeconds) {
+        return transcribeAudioFile(context, config, audioFile, usageDb, language, stylePrompt, trimmedSeconds, TranscriptionCache.MODE_OFF);
+    }
 
-        String transcriptionModel = "";
-        switch (transcriptionProvider) {  // for upgrading: use old transcription_model preference
-            case 0: transcriptionModel = sp.getString("net.devemperor.dictate.transcription_openai_model", sp.getString("net.devemperor.dictate.transcription_model", "gpt-4o-mini-transcribe")); break;
-            case 1: transcriptionModel = sp.getString("net.devemperor.dictate.transcription_groq_model", "whisper-large-v3-turbo"); break;
-            case 2: transcriptionModel = sp.getString("net.devemperor.dictate.transcription_custom_model", context.getString(R.string.dictate_custom_transcription_model_hint));
+    /**
+     * Same as {@link #transcribeAudioFile(Context, DictateConfig, File, UsageDatabaseHelper, String, String, long)}, but
+     * looks up and stores the transcript in the {@link TranscriptionCache}
+     *
+     * @param cacheMode One of the TranscriptionCache.MODE_* constants
+     */
+    public static String transcribeAudioFile(Context context, DictateConfig config, File audioFile, UsageDatabaseHelper usageDb, String language, String stylePrompt,
+                                             long trimmedSeconds, int cacheMode) {
+        DictateConfig.ApiConfig api = config.getTranscription();
+        String cacheKey = null;
+        if (cacheMode != TranscriptionCache.MODE_OFF) {
+            long lookupStart = System.nanoTime();
+            try {
+                cacheKey = TranscriptionCache.key(config, audioFile, language, stylePrompt);
+            } catch (IOException e) {
+                Log.w("DictateAPI", "Could not hash the recording, the transcript is not cached", e);
+            }
+            String cached = cacheKey != null && cacheMode == TranscriptionCache.MODE_USE ? TranscriptionCache.get(context).get(cacheKey) : null;
+            if (cached != null) {
+                Log.d("DictateAPI", "Transcript served from cache: " + cached);
+                usageDb.logEvent(new UsageEvent(api.getModel(), api.getProvider(), 0, 0, 0, 0, -1,
+                        (System.nanoTime() - lookupStart) / 1_000_000, UsageEvent.OUTCOME_CACHED));
+                return cached;
+            }
         }
 
-        OpenAIOkHttpClient.Builder clientBuilder = OpenAIOkHttpClient.builder()
-                .apiKey(apiKey)
-                .baseUrl(apiHost)
-                .timeout(Duration.ofSeconds(120));
+        long durationSpan = PipelineTracer.begin(PipelineTracer.AUDIO_DURATION);
+        long audioTime = DictateUtils.getAudioDuration(audioFile);
+        PipelineTracer.end(durationSpan);
+
+        // with a failover provider configured, the request may be sent to it as well
+        String resultText = TranscriptionFailover.transcribe(config, audioTime, (attemptApi, onFirstByte) ->
+                transcribeWith(context, config.getProxyHost(), attemptApi, audioFile, audioTime, usageDb, language, stylePrompt, trimmedSeconds, onFirstByte));
+        if (cacheKey != null) TranscriptionCache.get(context).put(cacheKey, resultText);
+
+        return resultText;
+    }
+
+    /**
+     * Sends the audio file to one transcription provider
+     *
+     * @param onFirstByte Called when the response headers arrived, may be null
+     */
+    private static String transcribeWith(Context context, String proxyHost, DictateConfig.ApiConfig api, File audioFile, long audioTime, UsageDatabaseHelper usageDb,
+                                         String language, String stylePrompt, long trimmedSeconds, Runnable onFirstByte) {
+        float transcriptionTemperature = api.getTemperature();
+        int transcriptionProvider = api.getProvider();
+        String apiHost = api.getApiHost();
+        String transcriptionModel = api.getModel();
+
+        long clientSpan = PipelineTracer.begin(PipelineTracer.CLIENT_BUILD);
+        OpenAIClient client = OpenAIClientPool.getInstance(context).acquire(transcriptionProvider, apiHost, api.getApiKey(), proxyHost, Duration.ofSeconds(120));
+        PipelineTracer.end(clientSpan);
 
         TranscriptionCreateParams.Builder transcriptionBuilder = TranscriptionCreateParams.builder()
-                .file(audioFile.toPath())
                 .model(transcriptionModel)
                 .temperature(transcriptionTemperature) // we want the most accurate transcription, no randomness
                 .responseFormat(AudioResponseFormat.JSON);  // gpt-4o-transcribe only supports json
@@ -1865,53 +2091,111 @@ public class DictateInputMethodService extends InputMethodService {
         if (stylePrompt != null && !stylePrompt.isEmpty())
             transcriptionBuilder.prompt(stylePrompt);
 
-        if (sp.getBoolean("net.devemperor.dictate.proxy_enabled", false)) {
-            if (DictateUtils.isValidProxy(proxyHost))
-                DictateUtils.applyProxy(clientBuilder, sp);
-        }
-
         // Logging für die API-Anfrage (ohne API-Key)
         Log.d("DictateAPI", "Transcription-API Request - URL: " + apiHost + ", Modell: " + transcriptionModel + ", Language: " + (language != null ? language : "detect") + ", Temperature: " + transcriptionTemperature + ", Prompt: " + (stylePrompt != null && !stylePrompt.isEmpty() ? stylePrompt : "none"));
 
-        Transcription transcription = clientBuilder.build().audio().transcriptions().create(transcriptionBuilder.build()).asTranscription();
-        String resultText = transcription.text().strip();  // Groq sometimes adds leading whitespace
+        long startTime = System.nanoTime();
+        long ttfb = -1;
+        String resultText;
+        int connection = ConnectionPrewarmer.onRequestStarted(apiHost);
+        transcriptionBuilder.file(audioFile.toPath());  // upload and server wait are traced by the client pool
+        try {
+            HttpResponseFor<TranscriptionCreateResponse> response = client.audio().transcriptions().withRawResponse().create(transcriptionBuilder.build(),
+                    AdaptiveTimeouts.forTranscription(apiHost, transcriptionModel, audioTime, audioFile.length()));
+            ttfb = (System.nanoTime() - startTime) / 1_000_000;  // the body is only read by parse()
+            ConnectionPrewarmer.onConnected(apiHost);
+            if (onFirstByte != null) onFirstByte.run();
+
+            long parseSpan = PipelineTracer.begin(PipelineTracer.JSON_PARSE);
+            Transcription transcription = response.parse().asTranscription();
+            PipelineTracer.end(parseSpan);
+            resultText = transcription.text().strip();  // Groq sometimes adds leading whitespace
+        } catch (RuntimeException e) {
+            long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+            int outcome = failureOutcome();
+            long upload = TracingHttpClient.getUploadMillis();
+            if (outcome != UsageEvent.OUTCOME_CANCELLED && ttfb < 0 && upload >= 0) {  // the server didn't answer in time
+                AdaptiveTimeouts.recordTranscriptionFailure(apiHost, transcriptionModel, audioTime, elapsed, upload);
+            }
+            usageDb.logEvent(new UsageEvent(transcriptionModel, transcriptionProvider, audioTime, 0, 0, audioFile.length(), ttfb,
+                    elapsed, outcome, connection));
+            throw e;
+        }
 
         // Logging der Transkription (ohne API-Key)
         Log.d("DictateAPI", "Received Transcript: " + resultText);
 
-        usageDb.edit(transcriptionModel, DictateUtils.getAudioDuration(audioFile), 0, 0, transcriptionProvider);
+        if (trimmedSeconds >= 0) Log.d("DictateAPI", "Silence trimmed before upload: " + trimmedSeconds + " s");
+        usageDb.edit(transcriptionModel, audioTime, 0, 0, transcriptionProvider, trimmedSeconds);
+        usageDb.logEvent(new UsageEvent(transcriptionModel, transcriptionProvider, audioTime, 0, 0, audioFile.length(), ttfb,
+                (System.nanoTime() - startTime) / 1_000_000, UsageEvent.OUTCOME_SUCCESS, connection));
+        LatencyHistogram.of(apiHost, transcriptionModel).record(ttfb, audioTime);
+        AdaptiveTimeouts.recordTranscription(apiHost, transcriptionModel, audioTime, ttfb, TracingHttpClient.getUploadMillis());
 
         return resultText;
     }
 
-    public static String performRewording(Context context, PromptModel model, String textToReword, UsageDatabaseHelper usageDb) throws Exception
-    {
-        SharedPreferences sp = context.getSharedPreferences("net.devemperor.dictate", Context.MODE_PRIVATE);
-
-        float rewordingTemperature = sp.getFloat("net.devemperor.dictate.rewording_temperature", 0.7f);
+    /**
+     * @return The outcome to record for a request which threw, interrupted requests were cancelled by the user
+     */
+    private static int failureOutcome() {
+        return Thread.currentThread().isInterrupted() ? UsageEvent.OUTCOME_CANCELLED : UsageEvent.OUTCOME_ERROR;
+    }
 
-        int rewordingProvider = sp.getInt("net.devemperor.dictate.rewording_provider", 0);
-        String apiHost = context.getResources().getStringArray(R.array.dictate_api_providers_values)[rewordingProvider];
-        if (apiHost.equals("custom_server")) apiHost = sp.getString("net.devemperor.dictate.rewording_custom_host", context.getString(R.string.dictate_custom_server_host_hint));
+    /**
+     * Receives the text of a streamed rewording while it is generated
+     */
+    public interface RewordingStreamListener {
+        /**
+         * Called on the request thread for every received piece of text
+         */
+        void onDelta(String delta);
+
+        /**
+         * @return Whether the stream should be closed, checked before every received chunk
+         */
+        boolean isCancelled();
+    }
 
-        String apiKey = sp.getString("net.devemperor.dictate.rewording_api_key", sp.getString("net.devemperor.dictate.api_key", "NO_API_KEY")).replaceAll("[^ -~]", "");
-        String proxyHost = sp.getString("net.devemperor.dictate.proxy_host", context.getString(R.string.dictate_settings_proxy_hint));
+    public static String performRewording(Context context, PromptModel model, String textToReword, UsageDatabaseHelper usageDb) throws Exception
+    {
+        return performRewording(context, model, textToReword, usageDb, null);
+    }
 
-        String rewordingModel = "";
-        switch (rewordingProvider) {
-            case 0: rewordingModel = sp.getString("net.devemperor.dictate.rewording_openai_model", sp.getString("net.devemperor.dictate.rewording_model", "gpt-4o-mini")); break;
-            case 1: rewordingModel = sp.getString("net.devemperor.dictate.rewording_groq_model", "llama-3.3-70b-versatile"); break;
-            case 2: rewordingModel = sp.getString("net.devemperor.dictate.rewording_custom_model", context.getString(R.string.dictate_custom_rewording_model_hint));
-        }
+    /**
+     * Rewords the text with the configured rewording service
+     *
+     * @param streamListener Receives the text while it is generated, if null the whole response is awaited
+     * @return The complete reworded text (also when streaming)
+     */
+    public static String performRewording(Context context, PromptModel model, String textToReword, UsageDatabaseHelper usageDb, RewordingStreamListener streamListener) throws Exception
+    {
+        return performRewording(context, DictateConfig.get(context), model, textToReword, usageDb, streamListener);
+    }
 
-        OpenAIOkHttpClient.Builder clientBuilder = OpenAIOkHttpClient.builder()
-                .apiKey(apiKey)
-                .baseUrl(apiHost)
-                .timeout(Duration.ofSeconds(120));
+    /**
+     * Same as {@link #performRewording(Context, PromptModel, String, UsageDatabaseHelper, RewordingStreamListener)}, but with
+     * the settings snapshot taken when the request was started
+     */
+    public static String performRewording(Context context, DictateConfig config, PromptModel model, String textToReword, UsageDatabaseHelper usageDb, RewordingStreamListener streamListener) throws Exception
+    {
+        return performRewording(context, config, model, textToReword, usageDb, null, streamListener);
+    }
 
-        if (sp.getBoolean("net.devemperor.dictate.proxy_enabled", false)) {
-            clientBuilder.proxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost.split(":")[0], Integer.parseInt(proxyHost.split(":")[1]))));
-        }
+    /**
+     * Same as {@link #performRewording(Context, DictateConfig, PromptModel, String, UsageDatabaseHelper, RewordingStreamListener)},
+     * but with a screenshot that was started before the text was collected
+     *
+     * @param screenshot The result of {@link DictateUtils#takeScreenshotAsync(Context, DictateConfig)}, null to start it here if needed
+     */
+    public static String performRewording(Context context, DictateConfig config, PromptModel model, String textToReword, UsageDatabaseHelper usageDb,
+                                          CompletableFuture<DictateUtils.Screenshot> screenshot, RewordingStreamListener streamListener) throws Exception
+    {
+        DictateConfig.ApiConfig api = config.getRewording();
+        float rewordingTemperature = api.getTemperature();
+        int rewordingProvider = api.getProvider();
+        String apiHost = api.getApiHost();
+        String rewordingModel = api.getModel();
 
         String prompt = model.getPrompt();
         String rewordedText;
@@ -1920,6 +2204,25 @@ public class DictateInputMethodService extends InputMethodService {
         }
         else
         {
+            // capture and client setup run while the messages are built, they are joined right before sending
+            if (screenshot == null) screenshot = startScreenshot(context, config, model);
+            CompletableFuture<OpenAIClient> clientFuture = CompletableFuture.supplyAsync(() -> OpenAIClientPool.getInstance(context)
+                    .acquire(rewordingProvider, apiHost, api.getApiKey(), config.getProxyHost(), Duration.ofSeconds(120)));
+
+            // screenshots change with every request, so those answers are never cached
+            String cacheKey = !model.isSendScreenshot() && RewordingCache.isEnabled(config) ? RewordingCache.key(config, prompt, textToReword) : null;
+            if (cacheKey != null) {
+                long lookupStart = System.nanoTime();
+                String cached = RewordingCache.get(context).get(cacheKey);
+                if (cached != null) {
+                    Log.d("DictateAPI", "Rewording served from cache");
+                    usageDb.logEvent(new UsageEvent(rewordingModel, rewordingProvider, 0, 0, 0, 0, -1,
+                            (System.nanoTime() - lookupStart) / 1_000_000, UsageEvent.OUTCOME_CACHED));
+                    if (streamListener != null) streamListener.onDelta(cached);
+                    return cached;
+                }
+            }
+
             ChatCompletionCreateParams.Builder chatCompletionBuilder
                     = ChatCompletionCreateParams
                         .builder()
@@ -1929,8 +2232,13 @@ public class DictateInputMethodService extends InputMethodService {
             Log.d("DictateAPI", "Rewording API Request - URL: " + apiHost + ", Modell: " + rewordingModel + ", Temperature: " + rewordingTemperature);
 
             String userMessage = null;
-            if (sp.getBoolean("net.devemperor.dictate.use_prompt_as_system_prompt", false)) {
+            String systemPrompt = null;
+            long requestBytes = 0;  // only the messages, not the JSON around them
+            long encodeMillis = -1;  // the time the attached screenshot took to encode
+            if (config.isUsePromptAsSystemPrompt()) {
+                systemPrompt = prompt;
                 chatCompletionBuilder.addSystemMessage(prompt);
+                requestBytes += prompt.getBytes(StandardCharsets.UTF_8).length;
 
                 try {
                     Log.d("DictateAPI", "System-Prompt configured / added: " + prompt);
@@ -1951,13 +2259,16 @@ public class DictateInputMethodService extends InputMethodService {
 
                 userMessage = prompt;
             }
+            requestBytes += userMessage.getBytes(StandardCharsets.UTF_8).length;
 
             Log.d("DictateAPI", "State vars: Screenshot = " + model.isSendScreenshot() + ", SDK min = " + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R));
-            if(apiHost.contains("openai.com") && model.isSendScreenshot() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+            VisionRequest visionRequest = null;
+            if(screenshot != null)
             {
-                Log.d("DictateAPI", "Taking screenshot as requested by prompt");
+                Log.d("DictateAPI", "Waiting for the screenshot requested by the prompt");
                 try {
-                    String screenshotResult = DictateUtils.takeScreenshot(context);
+                    DictateUtils.Screenshot capture = awaitScreenshot(screenshot);
+                    String screenshotResult = capture.result;
                     Log.d("DictateAPI", "Screenshot result: " + screenshotResult);
 
                     switch (screenshotResult) {
@@ -1968,39 +2279,29 @@ public class DictateInputMethodService extends InputMethodService {
                             return "";
                         case "SERVICE_NOT_BOUND":
                         case "FAILED":
+                            // a missing screenshot shouldn't cost the whole prompt
                             new Handler(Looper.getMainLooper()).post(() ->
                                     Toast.makeText(context.getApplicationContext(),
-                                            context.getString(R.string.dictate_screenshot_failed),
+                                            context.getString(R.string.dictate_screenshot_skipped),
                                             Toast.LENGTH_SHORT).show()
                             );
-                            return "";
+                            throw new IOException("Screenshot " + screenshotResult);
                     }
 
-                    byte[] bytes = Files.readAllBytes(Paths.get(screenshotResult));
-                    String b64 = Base64.encodeToString(bytes, Base64.NO_WRAP); // keine Zeilenumbrüche!
-                    String dataUrl = "data:image/png;base64," + b64;
-
-                    ChatCompletionContentPart textPart =
-                            ChatCompletionContentPart.ofText(
-                                    ChatCompletionContentPartText.builder()
-                                            .text(userMessage)
-                                            .build()
-                            );
-
-                    Log.d("DictateAPI", "Screenshot Data-URL: " + dataUrl);
-                    ChatCompletionContentPart imagePart = ChatCompletionContentPart.ofImageUrl(
-                                    ChatCompletionContentPartImage.builder()
-                                            .imageUrl(
-                                                    ChatCompletionContentPartImage.ImageUrl.builder()
-                                                            .url(dataUrl)          // WICHTIG: komplette Data-URL
-                                                            .build()
-                                            ).build()
-                                );
-                    chatCompletionBuilder.addUserMessageOfArrayOfContentParts(Arrays.asList(textPart, imagePart));
+                    // the image is streamed into the request body, the SDK would hold it several times as string
+                    String mimeType = screenshotResult.endsWith(".jpg") ? "image/jpeg" : "image/webp";
+                    visionRequest = new VisionRequest(context, config, systemPrompt, userMessage, new File(screenshotResult), mimeType, streamListener != null);
+                    requestBytes += visionRequest.getImagePayloadBytes();
+                    encodeMillis = capture.encodeMillis;
+                    Log.d("DictateAPI", "Screenshot payload: " + new File(screenshotResult).length() + " bytes, " + visionRequest.getImagePayloadBytes() + " bytes as data URL");
 
                     Log.d("DictateAPI", "Screenshot RESULT: " + screenshotResult);
+                } catch (InterruptedException e) {
+                    throw e;  // the request was cancelled
                 } catch (Exception e) {
                     Log.e("DictateAPI", "Fehler beim Aufnehmen des Screenshots", e);
+                    visionRequest = null;
+                    chatCompletionBuilder.addUserMessage(userMessage);  // send the prompt without the screenshot
                 }
             } else if (!apiHost.contains("openai.com") && model.isSendScreenshot()) {
                 // Groq und Custom-Server unterstützen keine Bilder
@@ -2014,18 +2315,163 @@ public class DictateInputMethodService extends InputMethodService {
                 chatCompletionBuilder.addUserMessage(userMessage);
             }
 
-            ChatCompletionCreateParams chatCompletionCreateParams = chatCompletionBuilder.build();
-            ChatCompletion chatCompletion = clientBuilder.build().chat().completions().create(chatCompletionCreateParams);
-            rewordedText = chatCompletion.choices().get(0).message().content().orElse("");
+            // screenshots are sent with the plain OkHttp client, whose connections are not warmed up
+            int connection = visionRequest == null ? ConnectionPrewarmer.onRequestStarted(apiHost) : UsageEvent.CONNECTION_UNKNOWN;
+            OpenAIClient client = visionRequest == null ? joinClient(clientFuture) : null;
+            if (visionRequest != null) {
+                rewordedText = sendVisionRequest(visionRequest, streamListener, usageDb, rewordingModel, rewordingProvider, requestBytes, encodeMillis, connection);
+            } else if (streamListener != null) {
+                if (rewordingProvider != 2) {  // custom servers don't necessarily know stream_options
+                    chatCompletionBuilder.streamOptions(ChatCompletionStreamOptions.builder().includeUsage(true).build());
+                }
+                ChatCompletionCreateParams chatCompletionCreateParams = chatCompletionBuilder.build();
+                rewordedText = streamRewording(client, chatCompletionCreateParams, streamListener, usageDb, apiHost, rewordingModel, rewordingProvider, requestBytes, connection);
+            } else {
+                ChatCompletionCreateParams chatCompletionCreateParams = chatCompletionBuilder.build();
+                long startTime = System.nanoTime();
+                long ttfb = -1;
+                ChatCompletion chatCompletion;
+                try {
+                    HttpResponseFor<ChatCompletion> response = client.chat().completions().withRawResponse().create(chatCompletionCreateParams,
+                            AdaptiveTimeouts.forRewording(apiHost, rewordingModel, false));
+                    ttfb = (System.nanoTime() - startTime) / 1_000_000;
+                    ConnectionPrewarmer.onConnected(apiHost);
+                    AdaptiveTimeouts.recordRewording(apiHost, rewordingModel, ttfb);
+                    chatCompletion = response.parse();
+                } catch (RuntimeException e) {
+                    long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+                    int outcome = failureOutcome();
+                    if (outcome != UsageEvent.OUTCOME_CANCELLED && ttfb < 0) AdaptiveTimeouts.recordRewordingFailure(apiHost, rewordingModel, elapsed);
+                    usageDb.logEvent(new UsageEvent(rewordingModel, rewordingProvider, 0, 0, 0, requestBytes, ttfb, elapsed, outcome, connection));
+                    throw e;
+                }
+                rewordedText = chatCompletion.choices().get(0).message().content().orElse("");
+
+                long inputTokens = 0, outputTokens = 0;
+                if (chatCompletion.usage().isPresent()) {
+                    inputTokens = chatCompletion.usage().get().promptTokens();
+                    outputTokens = chatCompletion.usage().get().completionTokens();
+                    usageDb.edit(rewordingModel, 0, inputTokens, outputTokens, rewordingProvider);
+                }
+                usageDb.logEvent(new UsageEvent(rewordingModel, rewordingProvider, 0, inputTokens, outputTokens, requestBytes, ttfb,
+                        (System.nanoTime() - startTime) / 1_000_000, UsageEvent.OUTCOME_SUCCESS, connection));
+            }
 
-            if (chatCompletion.usage().isPresent()) {
-                usageDb.edit(rewordingModel, 0, chatCompletion.usage().get().promptTokens(), chatCompletion.usage().get().completionTokens(), rewordingProvider);
+            // a cancelled stream only returns the beginning of the answer
+            if (cacheKey != null && !rewordedText.isEmpty() && (streamListener == null || !streamListener.isCancelled())) {
+                RewordingCache.get(context).put(cacheKey, rewordedText);
             }
         }
 
         return rewordedText;
     }
 
+    /**
+     * Starts the screenshot of a prompt that asks for one, only OpenAI accepts images
+     *
+     * @return The running capture, null if the prompt is sent without screenshot
+     */
+    private static CompletableFuture<DictateUtils.Screenshot> startScreenshot(Context context, DictateConfig config, PromptModel model) {
+        if (!model.isSendScreenshot() || Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return null;
+        if (!config.getRewording().getApiHost().contains("openai.com")) return null;
+        String prompt = model.getPrompt();
+        if (prompt.startsWith("[") && prompt.endsWith("]")) return null;  // fixed text, nothing is sent
+        Log.d("DictateAPI", "Taking screenshot as requested by prompt");
+        return DictateUtils.takeScreenshotAsync(context, config);
+    }
+
+    /**
+     * Waits for the capture with a deadline, a slow capture counts as failed
+     */
+    private static DictateUtils.Screenshot awaitScreenshot(CompletableFuture<DictateUtils.Screenshot> screenshot) throws InterruptedException {
+        try {
+            return screenshot.get(DictateUtils.SCREENSHOT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w("DictateAPI", "Screenshot not ready after " + DictateUtils.SCREENSHOT_TIMEOUT_MS + " ms, sending the prompt without it");
+            return new DictateUtils.Screenshot("FAILED", -1);
+        } catch (ExecutionException e) {
+            Log.e("DictateAPI", "Screenshot failed", e.getCause());
+            return new DictateUtils.Screenshot("FAILED", -1);
+        }
+    }
+
+    private static OpenAIClient joinClient(CompletableFuture<OpenAIClient> clientFuture) throws Exception {
+        try {
+            return clientFuture.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private static String streamRewording(OpenAIClient client, ChatCompletionCreateParams params, RewordingStreamListener listener,
+                                          UsageDatabaseHelper usageDb, String apiHost, String rewordingModel, int rewordingProvider, long requestBytes,
+                                          int connection) {
+        StringBuilder rewordedText = new StringBuilder();
+        long startTime = System.nanoTime();
+        long ttfb = -1;
+        long inputTokens = 0, outputTokens = 0;
+        int outcome = UsageEvent.OUTCOME_SUCCESS;
+        try (StreamResponse<ChatCompletionChunk> stream = client.chat().completions().createStreaming(params, AdaptiveTimeouts.forRewording(apiHost, rewordingModel, true))) {
+            Iterator<ChatCompletionChunk> chunks = stream.stream().iterator();
+            while (chunks.hasNext()) {
+                if (listener.isCancelled()) {
+                    Log.d("DictateAPI", "Rewording stream cancelled");
+                    outcome = UsageEvent.OUTCOME_CANCELLED;
+                    break;
+                }
+                ChatCompletionChunk chunk = chunks.next();
+                if (ttfb < 0) {
+                    ttfb = (System.nanoTime() - startTime) / 1_000_000;
+                    ConnectionPrewarmer.onConnected(apiHost);
+                    AdaptiveTimeouts.recordRewording(apiHost, rewordingModel, ttfb);
+                }
+                for (ChatCompletionChunk.Choice choice : chunk.choices()) {
+                    choice.delta().content().ifPresent(delta -> {
+                        if (rewordedText.length() == 0) Log.d("DictateAPI", "First token after " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+                        rewordedText.append(delta);
+                        listener.onDelta(delta);
+                    });
+                }
+                if (chunk.usage().isPresent()) {
+                    inputTokens = chunk.usage().get().promptTokens();
+                    outputTokens = chunk.usage().get().completionTokens();
+                    usageDb.edit(rewordingModel, 0, inputTokens, outputTokens, rewordingProvider);
+                }
+            }
+        } catch (RuntimeException e) {
+            outcome = failureOutcome();
+            if (outcome != UsageEvent.OUTCOME_CANCELLED && ttfb < 0) {
+                AdaptiveTimeouts.recordRewordingFailure(apiHost, rewordingModel, (System.nanoTime() - startTime) / 1_000_000);
+            }
+            throw e;
+        } finally {
+            usageDb.logEvent(new UsageEvent(rewordingModel, rewordingProvider, 0, inputTokens, outputTokens, requestBytes, ttfb,
+                    (System.nanoTime() - startTime) / 1_000_000, outcome, connection));
+        }
+        return rewordedText.toString();
+    }
+
+    /**
+     * Sends a rewording with screenshot, see {@link VisionRequest}
+     */
+    private static String sendVisionRequest(VisionRequest request, RewordingStreamListener listener, UsageDatabaseHelper usageDb,
+                                            String rewordingModel, int rewordingProvider, long requestBytes, long encodeMillis, int connection) {
+        long startTime = System.nanoTime();
+        int outcome = UsageEvent.OUTCOME_SUCCESS;
+        try {
+            String rewordedText = request.execute(listener);
+            if (listener != null && listener.isCancelled()) outcome = UsageEvent.OUTCOME_CANCELLED;
+            if (request.getInputTokens() > 0) usageDb.edit(rewordingModel, 0, request.getInputTokens(), request.getOutputTokens(), rewordingProvider);
+            return rewordedText;
+        } catch (IOException | RuntimeException e) {
+            outcome = failureOutcome();
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e.getMessage(), e);
+        } finally {
+            usageDb.logEvent(new UsageEvent(rewordingModel, rewordingProvider, 0, request.getInputTokens(), request.getOutputTokens(), requestBytes,
+                    request.getTtfbMillis(), (System.nanoTime() - startTime) / 1_000_000, outcome, connection, encodeMillis));
+        }
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -2035,6 +2481,12 @@ public class DictateInputMethodService extends InputMethodService {
 
         // Initiliaze BluetoothAdapter
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+
+        connectionPrewarmer = new ConnectionPrewarmer(this);
+        textOutputEngine = new TextOutputEngine(this::getCurrentInputConnection);
+        PromptRepository.getInstance(this).addListener(promptsListener);
+        PromptRepository.getInstance(this).preload();
+        JobQueue.getInstance(this).setResultTarget(queuedResultTarget);  // also resumes waiting jobs
     }
 
     @Override
@@ -2043,6 +2495,10 @@ public class DictateInputMethodService extends InputMethodService {
 
         // Stop Bluetooth SCO if it's still running
         stopBluetoothSco();
+
+        if (connectionPrewarmer != null) connectionPrewarmer.shutdown();
+        PromptRepository.getInstance(this).removeListener(promptsListener);
+        JobQueue.getInstance(this).setResultTarget(null);
     }
 
     // Combined BroadcastReceiver for Bluetooth connection and SCO state changes
@@ -0,0 +1,115 @@
+package net.devemperor.dictate.core;
+
+import android.accessibilityservice.AccessibilityService;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.hardware.HardwareBuffer;
+import android.os.Build;
+import android.util.Log;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * Turns a display capture into a small image for vision prompts: cropped to the window the user is typing in,
+ * scaled down to a maximum edge and compressed as WebP or JPEG. A full 1440p PNG has several MB, the result
+ * usually around 100 KB.
+ */
+@RequiresApi(api = Build.VERSION_CODES.R)
+public class ScreenshotEncoder {
+
+    private static final String TAG = "ScreenshotEncoder";
+
+    /**
+     * An encoded screenshot together with what it cost
+     */
+    public static class Result {
+        public final byte[] bytes;
+        public final String mimeType;
+        public final int width;
+        public final int height;
+        public final long encodeMillis;
+
+        Result(byte[] bytes, String mimeType, int width, int height, long encodeMillis) {
+            this.bytes = bytes;
+            this.mimeType = mimeType;
+            this.width = width;
+            this.height = height;
+            this.encodeMillis = encodeMillis;
+        }
+    }
+
+    private final String format;
+    private final int quality;
+    private final int maxEdge;
+
+    /**
+     * @param format "webp" or "jpeg"
+     * @param quality The compression quality from 0 to 100
+     * @param maxEdge The maximum width and height of the image in pixels
+     */
+    public ScreenshotEncoder(String format, int quality, int maxEdge) {
+        this.format = format;
+        this.quality = quality;
+        this.maxEdge = maxEdge;
+    }
+
+    /**
+     * Encodes the capture and closes its hardware buffer as soon as the pixels were copied
+     *
+     * @param focusedWindow The part of the screen to keep, null for the whole screen
+     */
+    public Result encode(AccessibilityService.ScreenshotResult screenshot, Rect focusedWindow) {
+        long start = System.nanoTime();
+        Bitmap source;
+        try (HardwareBuffer buffer = screenshot.getHardwareBuffer()) {
+            Bitmap hardwareBitmap = Bitmap.wrapHardwareBuffer(buffer, screenshot.getColorSpace());
+            if (hardwareBitmap == null) return null;
+            source = hardwareBitmap.copy(Bitmap.Config.ARGB_8888, false);  // hardware bitmaps can't be cropped or compressed cheaply
+            hardwareBitmap.recycle();
+        }
+        if (source == null) return null;
+
+        Rect crop = new Rect(0, 0, source.getWidth(), source.getHeight());
+        if (focusedWindow != null && !crop.intersect(focusedWindow)) crop.set(0, 0, source.getWidth(), source.getHeight());
+        float scale = Math.min(1f, maxEdge / (float) Math.max(crop.width(), crop.height()));
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        Bitmap scaled = Bitmap.createBitmap(source, crop.left, crop.top, crop.width(), crop.height(), matrix, true);
+        if (scaled != source) source.recycle();
+
+        boolean jpeg = format.equals("jpeg");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        scaled.compress(jpeg ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.WEBP_LOSSY, quality, out);
+        Result result = new Result(out.toByteArray(), jpeg ? "image/jpeg" : "image/webp", scaled.getWidth(), scaled.getHeight(),
+                (System.nanoTime() - start) / 1_000_000);
+        scaled.recycle();
+        Log.d(TAG, "Screenshot " + result.width + "x" + result.height + " " + result.mimeType + ": " + result.bytes.length
+                + " bytes, encoded in " + result.encodeMillis + " ms");
+        return result;
+    }
+
+    /**
+     * @return The bounds of the focused application window, null if it is unknown
+     */
+    public static Rect findFocusedWindow(AccessibilityService service) {
+        List<AccessibilityWindowInfo> windows = service.getWindows();
+        Rect active = null;
+        for (AccessibilityWindowInfo window : windows) {
+            if (window.getType() != AccessibilityWindowInfo.TYPE_APPLICATION) continue;  // not the keyboard or system bars
+            Rect bounds = new Rect();
+            window.getBoundsInScreen(bounds);
+            if (window.isFocused()) return bounds;
+            if (window.isActive() && active == null) active = bounds;
+        }
+        return active;
+    }
+
+    public String getExtension() {
+        return format.equals("jpeg") ? "jpg" : "webp";
+    }
+}
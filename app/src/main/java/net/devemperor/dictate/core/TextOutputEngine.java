@@ -0,0 +1,250 @@
+package net.devemperor.dictate.core;
+
+import android.icu.text.BreakIterator;
+import android.view.Choreographer;
+import android.view.inputmethod.InputConnection;
+
+import net.devemperor.dictate.PipelineTracer;
+
+import java.util.function.Supplier;
+
+/**
+ * Commits text that arrives in pieces (e.g. streamed tokens) or that should be typed out to the current
+ * InputConnection, driven by display frames instead of one Handler message per character.
+ * In instant mode all text which arrived since the last frame is committed with a single commitText call.
+ * In typewriter mode the text is committed at the configured speed in batches which never split a grapheme
+ * (e.g. an emoji) and with at most {@link #MAX_COMMITS_PER_SECOND} commitText calls per second.
+ * Text can be appended from any thread, committing always happens on the main thread.
+ */
+class TextOutputEngine implements Choreographer.FrameCallback {
+
+    private static final int MAX_COMMITS_PER_SECOND = 10;
+    private static final long MIN_COMMIT_INTERVAL_NANOS = 1_000_000_000L / MAX_COMMITS_PER_SECOND;
+
+    private final Choreographer choreographer;
+    private final Supplier<InputConnection> inputConnectionSupplier;
+    private final Object lock = new Object();
+    private final StringBuilder pending = new StringBuilder();
+    private final BreakIterator graphemes = BreakIterator.getCharacterInstance();
+
+    private boolean frameScheduled = false;
+    private boolean finished = false;
+    private Runnable onFinished;
+    private float charsPerSecond = 0;  // 0 means instant output
+    private double credit = 0;  // characters which may be committed, accumulated over time
+    private long lastCreditNanos = 0;
+    private long lastCommitNanos = 0;
+    private long outputSpan = 0;
+    private int earlierPending = 0;  // characters at the start of pending which belong to earlier outputs
+    private int committed = 0;  // characters of the current output which were committed
+    private int currentOutput = 0;
+
+    /**
+     * Has to be created on the main thread
+     *
+     * @param inputConnectionSupplier Returns the InputConnection to commit to, it is requested again for every commit
+     */
+    TextOutputEngine(Supplier<InputConnection> inputConnectionSupplier) {
+        this.choreographer = Choreographer.getInstance();
+        this.inputConnectionSupplier = inputConnectionSupplier;
+    }
+
+    /**
+     * Starts a new output. Text which is still pending from a previous output is kept and typed before the new text,
+     * the finish callback of the previous output is replaced by the one of the new output.
+     *
+     * @param charsPerSecond The typing speed, 0 to commit the text as soon as it arrives
+     * @return Identifies the output for {@link #discard(int)}
+     */
+    int begin(float charsPerSecond) {
+        synchronized (lock) {
+            finished = false;
+            onFinished = null;
+            endOutputSpan();
+            outputSpan = PipelineTracer.begin(PipelineTracer.OUTPUT);
+            this.charsPerSecond = charsPerSecond;
+            earlierPending = pending.length();
+            committed = 0;
+            if (pending.length() == 0) {  // otherwise the typing continues at the same pace
+                credit = 0;
+                lastCreditNanos = 0;
+                lastCommitNanos = 0;
+            }
+            return ++currentOutput;
+        }
+    }
+
+    void append(CharSequence text) {
+        if (text.length() == 0) return;
+        synchronized (lock) {
+            pending.append(text);
+            scheduleFrame(0);
+        }
+    }
+
+    /**
+     * Marks the output as complete, the callback is run on the main thread after the last text was committed
+     */
+    void finish(Runnable onFinished) {
+        synchronized (lock) {
+            finished = true;
+            this.onFinished = onFinished;
+            scheduleFrame(0);
+        }
+    }
+
+    /**
+     * Drops all text which wasn't committed yet, the finish callback is not run
+     */
+    void cancel() {
+        synchronized (lock) {
+            pending.setLength(0);
+            earlierPending = 0;
+            finished = false;
+            onFinished = null;
+            endOutputSpan();
+            if (frameScheduled) {
+                choreographer.removeFrameCallback(this);
+                frameScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Drops the text of the given output which wasn't committed yet, text of earlier outputs is still typed.
+     * The finish callback is not run.
+     *
+     * @param output The output as returned by {@link #begin(float)}, nothing happens if another one began since
+     */
+    void cancel(int output) {
+        synchronized (lock) {
+            if (output != currentOutput) return;
+            pending.setLength(earlierPending);
+            finished = false;
+            onFinished = null;
+            endOutputSpan();
+            if (pending.length() == 0 && frameScheduled) {
+                choreographer.removeFrameCallback(this);
+                frameScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Drops the text of the current output which wasn't committed yet and deletes the part which already was,
+     * e.g. because the stream it came from failed. Text of earlier outputs is still typed. Has to be called
+     * on the main thread, the cursor is expected behind the committed text.
+     *
+     * @param output The output as returned by {@link #begin(float)}, nothing happens if another one began since
+     * @param restore The text which the first commit of the output replaced (e.g. the selection), committed again
+     */
+    void discard(int output, CharSequence restore) {
+        int toDelete;
+        synchronized (lock) {
+            if (output != currentOutput) return;
+            pending.setLength(earlierPending);
+            toDelete = committed;
+            committed = 0;
+            finished = false;
+            onFinished = null;
+            endOutputSpan();
+        }
+        if (toDelete > 0) {
+            InputConnection inputConnection = inputConnectionSupplier.get();
+            if (inputConnection == null) return;
+            inputConnection.beginBatchEdit();
+            inputConnection.deleteSurroundingText(toDelete, 0);
+            if (restore != null && restore.length() > 0) inputConnection.commitText(restore, 1);
+            inputConnection.endBatchEdit();
+        }
+    }
+
+    boolean isActive() {
+        synchronized (lock) {
+            return pending.length() > 0 || frameScheduled;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        String text;
+        Runnable callback = null;
+        long finishedSpan = 0;
+        synchronized (lock) {
+            frameScheduled = false;
+
+            int end = pending.length();
+            if (charsPerSecond > 0 && end > 0) {
+                long sinceLastCommit = frameTimeNanos - lastCommitNanos;
+                if (lastCommitNanos != 0 && sinceLastCommit < MIN_COMMIT_INTERVAL_NANOS) {
+                    scheduleFrame((MIN_COMMIT_INTERVAL_NANOS - sinceLastCommit) / 1_000_000);
+                    return;
+                }
+                if (lastCreditNanos == 0) {
+                    credit = Math.max(1, charsPerSecond * MIN_COMMIT_INTERVAL_NANOS / 1e9);  // start typing right away
+                } else {
+                    credit = Math.min(credit + charsPerSecond * (frameTimeNanos - lastCreditNanos) / 1e9, charsPerSecond);  // max. 1 s backlog
+                }
+                lastCreditNanos = frameTimeNanos;
+                end = Math.min(end, (int) credit);
+            }
+            end = graphemeEnd(end);
+
+            text = pending.substring(0, end);
+            pending.delete(0, end);
+            if (!text.isEmpty()) {
+                credit -= text.length();
+                lastCommitNanos = frameTimeNanos;
+                committed += Math.max(0, text.length() - earlierPending);
+                earlierPending = Math.max(0, earlierPending - text.length());
+            }
+
+            if (pending.length() > 0) {
+                scheduleFrame(charsPerSecond > 0 ? MIN_COMMIT_INTERVAL_NANOS / 1_000_000 : 0);
+            } else if (finished) {
+                callback = onFinished;
+                finished = false;
+                onFinished = null;
+                finishedSpan = outputSpan;
+                outputSpan = 0;
+            }
+        }
+
+        if (!text.isEmpty()) {
+            InputConnection inputConnection = inputConnectionSupplier.get();
+            if (inputConnection != null) inputConnection.commitText(text, 1);
+        }
+        PipelineTracer.end(finishedSpan);
+        if (callback != null) callback.run();
+    }
+
+    /**
+     * Moves the end of a batch behind the grapheme it is in. At the end of the pending text a trailing
+     * high surrogate is held back while more text can still arrive.
+     */
+    private int graphemeEnd(int end) {
+        if (end <= 0) return 0;
+        if (end >= pending.length()) {
+            end = pending.length();
+            return !finished && Character.isHighSurrogate(pending.charAt(end - 1)) ? end - 1 : end;
+        }
+        // graphemes are short, a small window around the end is enough context
+        int windowStart = Math.max(0, end - 16);
+        graphemes.setText(pending.substring(windowStart, Math.min(pending.length(), end + 32)));
+        int relativeEnd = end - windowStart;
+        return windowStart + (graphemes.isBoundary(relativeEnd) ? relativeEnd : graphemes.following(relativeEnd));
+    }
+
+    private void endOutputSpan() {
+        PipelineTracer.end(outputSpan);
+        outputSpan = 0;
+    }
+
+    private void scheduleFrame(long delayMillis) {
+        if (frameScheduled) return;
+        frameScheduled = true;
+        // Choreographer is thread-safe, the callback runs on the main thread
+        if (delayMillis > 0) choreographer.postFrameCallbackDelayed(this, delayMillis);
+        else choreographer.postFrameCallback(this);
+    }
+}
@@ -0,0 +1,81 @@
+package net.devemperor.dictate.core;
+
+import android.icu.text.BreakIterator;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * The starts of the words before the cursor, collected once when the backspace button is pressed so that swiping
+ * over it to select words only needs setSelection calls. Only a window of {@link #WINDOW} characters before the
+ * cursor is read, words are found with the ICU word iterator so that e.g. accented letters, CJK text and numbers
+ * with separators are handled as words.
+ */
+class WordBoundaryIndex {
+
+    static final int WINDOW = 2000;  // far more words than a swipe over the keyboard can select
+
+    private final int cursor;
+    private final int[] wordStarts;  // absolute positions, nearest to the cursor first
+
+    private WordBoundaryIndex(int cursor, int[] wordStarts) {
+        this.cursor = cursor;
+        this.wordStarts = wordStarts;
+    }
+
+    /**
+     * @param cursor The position of the cursor as reported by onUpdateSelection, -1 if it is unknown. It arrives
+     *               asynchronously and is only used for fields longer than the window.
+     */
+    static WordBoundaryIndex build(InputConnection inputConnection, int cursor) {
+        CharSequence before = inputConnection.getTextBeforeCursor(WINDOW, 0);
+        if (before == null) return new WordBoundaryIndex(Math.max(cursor, 0), new int[0]);
+        String text = before.toString();
+
+        if (text.length() < WINDOW) {
+            // the window reaches the start of the field, unlike the reported position it is never behind the editor
+            cursor = text.length();
+        } else if (cursor < 0) {
+            // only here the editor has to be asked for the position, with as little text as possible
+            ExtractedTextRequest request = new ExtractedTextRequest();
+            request.hintMaxChars = 1;
+            ExtractedText extractedText = inputConnection.getExtractedText(request, 0);
+            cursor = extractedText != null ? extractedText.startOffset + extractedText.selectionStart : text.length();
+        }
+        int offset = cursor - text.length();
+
+        BreakIterator iterator = BreakIterator.getWordInstance();
+        iterator.setText(text);
+        int[] starts = new int[text.length()];
+        int count = 0;
+        int start = iterator.first();
+        for (int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+            if (iterator.getRuleStatus() < BreakIterator.WORD_NONE_LIMIT) continue;  // spaces and punctuation
+            if (start == 0 && text.length() == WINDOW) continue;  // the window may begin inside a word
+            starts[count++] = offset + start;
+        }
+
+        int[] nearestFirst = new int[count];
+        for (int i = 0; i < count; i++) nearestFirst[i] = starts[count - 1 - i];
+        return new WordBoundaryIndex(cursor, nearestFirst);
+    }
+
+    int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return The number of words which can be selected
+     */
+    int size() {
+        return wordStarts.length;
+    }
+
+    /**
+     * @param wordCount The number of words to select, at most {@link #size()}
+     * @return The start of the selection which ends at the cursor
+     */
+    int selectionStart(int wordCount) {
+        return wordCount <= 0 ? cursor : wordStarts[wordCount - 1];
+    }
+}
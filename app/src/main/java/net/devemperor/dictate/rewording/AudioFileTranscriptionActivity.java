@@ -23,9 +23,15 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
+import net.devemperor.dictate.DictateConfig;
+import net.devemperor.dictate.api.ResultCache;
+import net.devemperor.dictate.api.SplitTranscriptionJob;
+import net.devemperor.dictate.api.TranscriptionCache;
+import net.devemperor.dictate.audio.AudioEncoding;
 import net.devemperor.dictate.core.DictateInputMethodService;
 import net.devemperor.dictate.R;
 import net.devemperor.dictate.usage.UsageDatabaseHelper;
+import net.devemperor.dictate.usage.UsageEvent;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -46,16 +52,18 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
     private ProgressBar transcriptionPb;
     private Button copyBtn;
     private Button closeBtn;
+    private Button retranscribeBtn;
     private SharedPreferences sp;
     private UsageDatabaseHelper usageDb;
     private Vibrator vibrator;
     private ExecutorService transcriptionThread;
+    private SplitTranscriptionJob splitJob;
+    private File audioFile;  // kept until the activity is closed, so it can be transcribed again
     private String transcriptionResult = "";
     private boolean vibrationEnabled = true;
 
     private RecyclerView promptsRv;
     private PromptsKeyboardAdapter promptsAdapter;
-    private PromptsDatabaseHelper promptsDb;
     private ExecutorService rewordingApiThread;
 
     @Override
@@ -74,10 +82,11 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
         transcriptionPb = findViewById(R.id.audio_file_transcription_pb);
         copyBtn = findViewById(R.id.audio_file_transcription_copy_btn);
         closeBtn = findViewById(R.id.audio_file_transcription_close_btn);
+        retranscribeBtn = findViewById(R.id.audio_file_transcription_retranscribe_btn);
 
         // Initialize other components
         sp = getSharedPreferences("net.devemperor.dictate", MODE_PRIVATE);
-        usageDb = new UsageDatabaseHelper(this);
+        usageDb = UsageDatabaseHelper.getInstance(this);
         vibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);
         vibrationEnabled = sp.getBoolean("net.devemperor.dictate.vibration", true);
 
@@ -85,8 +94,7 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
         promptsRv = findViewById(R.id.audio_file_transcription_prompts_rv);
         promptsRv.setLayoutManager(new LinearLayoutManager(this, LinearLayoutManager.HORIZONTAL, false));
 
-        promptsDb = new PromptsDatabaseHelper(this);
-        List<PromptModel> prompts = promptsDb.getAllToDisplay(); // true to include instant prompts, we'll filter -1 later
+        List<PromptModel> prompts = PromptRepository.getInstance(this).getPrompts(); // includes instant prompt, we'll filter -1 later
 
         // Filter out prompt with ID -1 (Instant Prompt)
         List<PromptModel> filteredPrompts = new java.util.ArrayList<>();
@@ -110,6 +118,15 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
         // Set up button listeners
         copyBtn.setOnClickListener(v -> copyTranscriptionToClipboard());
         closeBtn.setOnClickListener(v -> finish());
+        retranscribeBtn.setOnClickListener(v -> {
+            // the same file would be answered from the cache, so this one skips it
+            transcriptionPb.setVisibility(View.VISIBLE);
+            transcriptionResultTv.setText(R.string.dictate_transcribing);
+            copyBtn.setVisibility(View.GONE);
+            closeBtn.setVisibility(View.GONE);
+            retranscribeBtn.setVisibility(View.GONE);
+            transcriptionThread.execute(() -> transcribe(TranscriptionCache.MODE_REFRESH));
+        });
 
         // Check for file in intent
         Intent intent = getIntent();
@@ -145,24 +162,25 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
     }
 
     private void transcribeAudioFile(Uri audioUri) {
-        try {
-            // Copy the file to internal storage since the API needs a file path
-            File tempFile = copyUriToFile(audioUri);
-            if (tempFile == null) {
-                runOnUiThread(() -> {
-                    transcriptionResultTv.setText(R.string.dictate_file_copy_error);
-                    transcriptionPb.setVisibility(View.GONE);
-                    closeBtn.setVisibility(View.VISIBLE);
-                });
-                return;
-            }
+        // Copy the file to internal storage since the API needs a file path
+        File tempFile = copyUriToFile(audioUri);
+        if (tempFile == null) {
+            runOnUiThread(() -> {
+                transcriptionResultTv.setText(R.string.dictate_file_copy_error);
+                transcriptionPb.setVisibility(View.GONE);
+                closeBtn.setVisibility(View.VISIBLE);
+            });
+            return;
+        }
+        audioFile = tempFile;
+        transcribe(TranscriptionCache.MODE_USE);
+    }
 
+    private void transcribe(int cacheMode) {
+        try {
             // Perform transcription
-            String resultText = performTranscription(tempFile);
-            
-            // Clean up temp file
-            tempFile.delete();
-            
+            String resultText = performTranscription(audioFile, cacheMode);
+
             // Update UI with results
             transcriptionResult = resultText;
             runOnUiThread(() -> {
@@ -170,6 +188,7 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
                 transcriptionResultTv.setText(resultText);
                 copyBtn.setVisibility(View.VISIBLE);
                 closeBtn.setVisibility(View.VISIBLE);
+                retranscribeBtn.setVisibility(View.VISIBLE);
                 
                 // Vibrate on completion
                 if (vibrationEnabled) {
@@ -310,27 +329,29 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
     }
     
     private boolean isValidAudioExtension(String extension) {
-        if (extension == null) return false;
-        
-        // Remove the dot if present
-        if (extension.startsWith(".")) {
-            extension = extension.substring(1);
-        }
-        
-        // List of supported extensions by the transcription service
-        String[] supportedExtensions = {"flac", "mp3", "mp4", "mpeg", "mpga", "m4a", "ogg", "opus", "wav", "webm"};
-        
-        for (String supported : supportedExtensions) {
-            if (supported.equalsIgnoreCase(extension)) {
-                return true;
-            }
-        }
-        
-        return false;
+        return AudioEncoding.isSupportedExtension(extension);
     }
 
-    private String performTranscription(File audioFile) throws Exception {
-        return DictateInputMethodService.transcribeAudioFile(this, audioFile, usageDb);
+    private String performTranscription(File audioFile, int cacheMode) throws Exception {
+        DictateConfig config = DictateConfig.get(this);
+        if (SplitTranscriptionJob.needsSplitting(audioFile)) {
+            // long recordings are split and sent in parallel, otherwise they would hit the upload limit
+            // the windows are never sent again on their own, so the whole file is cached instead
+            ResultCache cache = TranscriptionCache.get(this);
+            String cacheKey = TranscriptionCache.key(config, audioFile, "detect", "");
+            String cached = cacheMode == TranscriptionCache.MODE_USE ? cache.get(cacheKey) : null;
+            if (cached != null) {
+                usageDb.logEvent(new UsageEvent(config.getTranscription().getModel(), config.getTranscription().getProvider(), 0, 0, 0, 0, -1, 0,
+                        UsageEvent.OUTCOME_CACHED));
+                return cached;
+            }
+
+            splitJob = new SplitTranscriptionJob(this, usageDb, "detect", "");
+            String resultText = splitJob.transcribe(audioFile);
+            cache.put(cacheKey, resultText);
+            return resultText;
+        }
+        return DictateInputMethodService.transcribeAudioFile(this, config, audioFile, usageDb, "detect", "", -1, cacheMode);
     }
 
     private void copyTranscriptionToClipboard() {
@@ -363,6 +384,7 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
         transcriptionResultTv.setText(R.string.dictate_rephrasing); // Or a more specific message
         copyBtn.setVisibility(View.GONE);
         closeBtn.setVisibility(View.GONE);
+        retranscribeBtn.setVisibility(View.GONE);
         promptsRv.setVisibility(View.GONE); // Hide prompts during rephrasing
 
         // Start rephrasing in background thread
@@ -417,9 +439,10 @@ public class AudioFileTranscriptionActivity extends AppCompatActivity {
         if (transcriptionThread != null && !transcriptionThread.isShutdown()) {
             transcriptionThread.shutdownNow();
         }
+        if (splitJob != null) splitJob.cancel();
         if (rewordingApiThread != null && !rewordingApiThread.isShutdown()) {
             rewordingApiThread.shutdownNow();
         }
-        if (usageDb != null) usageDb.close();
+        if (audioFile != null) audioFile.delete();
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package net.devemperor.dictate.rewording;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the prompts shown in the keyboard in memory, so that they don't have to be read from the database
+ * on every selection change. The snapshot is reloaded in the background whenever {@link PromptsDatabaseHelper}
+ * changes the prompts, listeners are notified on the main thread.
+ */
+public class PromptRepository {
+
+    public interface Listener {
+        /**
+         * Called on the main thread after the prompts changed
+         *
+         * @param prompts The new snapshot, including the instant prompt (-1) and add button (-2) entries
+         */
+        void onPromptsChanged(List<PromptModel> prompts);
+    }
+
+    private static PromptRepository instance;
+
+    private final PromptsDatabaseHelper db;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean reloadPending = new AtomicBoolean(false);
+    private volatile List<PromptModel> snapshot;
+
+    private PromptRepository(Context context) {
+        db = new PromptsDatabaseHelper(context);
+    }
+
+    public static synchronized PromptRepository getInstance(Context context) {
+        if (instance == null) instance = new PromptRepository(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * @return An unmodifiable snapshot of all prompts to display, loaded from the database only on the first call
+     */
+    public List<PromptModel> getPrompts() {
+        List<PromptModel> current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) snapshot = load();
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Loads the snapshot in the background if it wasn't loaded yet
+     */
+    public void preload() {
+        if (snapshot == null) loader.execute(this::getPrompts);
+    }
+
+    /**
+     * @return The prompt which is applied to every transcription, or null
+     */
+    public PromptModel getAlwaysUsePrompt() {
+        for (PromptModel model : getPrompts()) {
+            if (model.getId() >= 0 && model.isAlwaysUse()) return model;
+        }
+        return null;
+    }
+
+    /**
+     * Reloads the snapshot in the background, several calls in a row (e.g. an import) cause only one reload
+     */
+    void invalidate() {
+        if (!reloadPending.compareAndSet(false, true)) return;
+        loader.execute(() -> {
+            reloadPending.set(false);
+            List<PromptModel> prompts = load();
+            synchronized (this) {
+                snapshot = prompts;
+            }
+            mainHandler.post(() -> {
+                for (Listener listener : listeners) listener.onPromptsChanged(prompts);
+            });
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private List<PromptModel> load() {
+        return Collections.unmodifiableList(new ArrayList<>(db.getAllToDisplay()));
+    }
+}
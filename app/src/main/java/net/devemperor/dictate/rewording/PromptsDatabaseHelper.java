@@ -143,6 +143,7 @@ public class PromptsDatabaseHelper extends SQLiteOpenHelper {
         cv.put("SEND_SCREENSHOT", model.isSendScreenshot());
         long result = db.insert("PROMPTS", null, cv);
         db.close();
+        notifyChanged();
         return (int) result;
     }
 
@@ -157,12 +158,14 @@ public class PromptsDatabaseHelper extends SQLiteOpenHelper {
         cv.put("SEND_SCREENSHOT", model.isSendScreenshot());
         db.update("PROMPTS", cv, "ID = " + model.getId(), null);
         db.close();
+        notifyChanged();
     }
 
     public void delete(int id) {
         SQLiteDatabase db = getWritableDatabase();
         db.delete("PROMPTS", "ID = " + id, null);
         db.close();
+        notifyChanged();
     }
 
     public PromptModel get(int id) {
@@ -311,5 +314,10 @@ public class PromptsDatabaseHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = getWritableDatabase();
         db.delete("PROMPTS", null, null);
         db.close();
+        notifyChanged();
+    }
+
+    private void notifyChanged() {
+        if (context != null) PromptRepository.getInstance(context).invalidate();
     }
 }
\ No newline at end of file
@@ -8,13 +8,16 @@ import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.content.res.AppCompatResources;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.button.MaterialButton;
 
 import net.devemperor.dictate.R;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class PromptsKeyboardAdapter extends RecyclerView.Adapter<PromptsKeyboardAdapter.RecyclerViewHolder> {
 
@@ -184,6 +187,43 @@ public class PromptsKeyboardAdapter extends RecyclerView.Adapter<PromptsKeyboard
     public List<PromptModel> getData() {
         return data;
     }
+
+    /**
+     * Replaces the displayed prompts and only rebinds the buttons which actually changed
+     */
+    public void submitPrompts(List<PromptModel> prompts) {
+        List<PromptModel> oldPrompts = new ArrayList<>(data);
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldPrompts.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return prompts.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldPrompts.get(oldItemPosition).getId() == prompts.get(newItemPosition).getId();
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                PromptModel oldModel = oldPrompts.get(oldItemPosition);
+                PromptModel newModel = prompts.get(newItemPosition);
+                return Objects.equals(oldModel.getName(), newModel.getName())
+                        && Objects.equals(oldModel.getPrompt(), newModel.getPrompt())
+                        && oldModel.requiresSelection() == newModel.requiresSelection()
+                        && oldModel.isAlwaysUse() == newModel.isAlwaysUse()
+                        && oldModel.isSendScreenshot() == newModel.isSendScreenshot();
+            }
+        });
+        data.clear();
+        data.addAll(prompts);  // the list is shared with the callbacks of the keyboard, so it is updated in place
+        diff.dispatchUpdatesTo(this);
+    }
     
     public void clearTemporaryAlwaysUsePrompt() {
         this.temporaryAlwaysUsePrompt = null;
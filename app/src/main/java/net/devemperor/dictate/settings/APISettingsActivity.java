@@ -22,6 +22,7 @@ import androidx.core.view.WindowInsetsCompat;
 
 import net.devemperor.dictate.R;
 import net.devemperor.dictate.SimpleTextWatcher;
+import net.devemperor.dictate.api.SplitTranscriptionJob;
 
 import java.util.stream.IntStream;
 
@@ -39,6 +40,8 @@ public class APISettingsActivity extends AppCompatActivity {
     private EditText rewordingCustomModelEt;
     private SeekBar transcriptionTemperatureSb;
     private TextView transcriptionTemperatureValueTv;
+    private SeekBar transcriptionParallelismSb;
+    private TextView transcriptionParallelismValueTv;
     private SeekBar rewordingTemperatureSb;
     private TextView rewordingTemperatureValueTv;
     private LinearLayout transcriptionCustomFieldsWrapper;
@@ -51,6 +54,7 @@ public class APISettingsActivity extends AppCompatActivity {
     private String transcriptionCustomHost;
     private String transcriptionCustomModel;
     private float transcriptionTemperature;
+    private SharedPreferences sp;
     private int rewordingProvider;
     private String rewordingOpenAIModel;
     private String rewordingGroqModel;
@@ -83,7 +87,7 @@ public class APISettingsActivity extends AppCompatActivity {
             actionBar.setTitle(R.string.dictate_api_settings);
         }
 
-        SharedPreferences sp = getSharedPreferences("net.devemperor.dictate", MODE_PRIVATE);
+        sp = getSharedPreferences("net.devemperor.dictate", MODE_PRIVATE);
         transcriptionProviderSpn = findViewById(R.id.api_settings_transcription_provider_spn);
         transcriptionModelSpn = findViewById(R.id.api_settings_transcription_model_spn);
         transcriptionAPIKeyEt = findViewById(R.id.api_settings_transcription_api_key_et);
@@ -96,6 +100,8 @@ public class APISettingsActivity extends AppCompatActivity {
         rewordingCustomModelEt = findViewById(R.id.api_settings_rewording_custom_model_et);
         transcriptionTemperatureSb = findViewById(R.id.api_settings_transcription_temperature_sb);
         transcriptionTemperatureValueTv = findViewById(R.id.api_settings_transcription_temperature_value_tv);
+        transcriptionParallelismSb = findViewById(R.id.api_settings_transcription_parallelism_sb);
+        transcriptionParallelismValueTv = findViewById(R.id.api_settings_transcription_parallelism_value_tv);
         rewordingTemperatureSb = findViewById(R.id.api_settings_rewording_temperature_sb);
         rewordingTemperatureValueTv = findViewById(R.id.api_settings_rewording_temperature_value_tv);
         transcriptionCustomFieldsWrapper = findViewById(R.id.api_settings_transcription_custom_fields_wrapper);
@@ -193,6 +199,23 @@ public class APISettingsActivity extends AppCompatActivity {
             }
         });
 
+        // number of concurrent requests when long audio files are split, stored per provider because of different rate limits
+        transcriptionParallelismSb.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                transcriptionParallelismValueTv.setText(String.valueOf(progress));
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) { }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                sp.edit().putInt("net.devemperor.dictate.transcription_parallelism_" + transcriptionProvider, seekBar.getProgress()).apply();
+            }
+        });
+        transcriptionParallelismValueTv.setText(String.valueOf(transcriptionParallelismSb.getProgress()));
+
 
         // CONFIGURE REWORDING API SETTINGS
         rewordingProvider = sp.getInt("net.devemperor.dictate.rewording_provider", 0);
@@ -288,6 +311,7 @@ public class APISettingsActivity extends AppCompatActivity {
 
     private void updateTranscriptionModels(int position) {
         transcriptionCustomFieldsWrapper.setVisibility(position == 2 ? View.VISIBLE : View.GONE);
+        transcriptionParallelismSb.setProgress(SplitTranscriptionJob.getParallelism(sp, position));
         transcriptionModelSpn.setEnabled(position != 2);
 
         if (position == 0) {
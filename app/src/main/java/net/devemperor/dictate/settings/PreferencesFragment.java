@@ -1,5 +1,6 @@
 package net.devemperor.dictate.settings;
 
+import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -10,6 +11,8 @@ import android.text.TextUtils;
 import android.widget.Toast;
 import android.media.MediaPlayer;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.preference.EditTextPreference;
 import androidx.preference.MultiSelectListPreference;
 import androidx.preference.Preference;
@@ -21,6 +24,7 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import net.devemperor.dictate.BuildConfig;
 import net.devemperor.dictate.DictateUtils;
+import net.devemperor.dictate.PipelineTracer;
 import net.devemperor.dictate.R;
 import net.devemperor.dictate.core.DictateInputMethodService;
 import net.devemperor.dictate.rewording.PromptsOverviewActivity;
@@ -29,6 +33,7 @@ import net.devemperor.dictate.usage.UsageDatabaseHelper;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -38,6 +43,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat {
     private MediaPlayer mediaPlayer;
     private Preference playLastRecordingPref;
     private File lastRecordingFile;
+    private ActivityResultLauncher<Intent> exportTraceLauncher;
 
     SharedPreferences sp;
     UsageDatabaseHelper usageDatabaseHelper;
@@ -47,7 +53,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat {
         getPreferenceManager().setSharedPreferencesName("net.devemperor.dictate");
         setPreferencesFromResource(R.xml.fragment_preferences, null);
         sp = getPreferenceManager().getSharedPreferences();
-        usageDatabaseHelper = new UsageDatabaseHelper(requireContext());
+        usageDatabaseHelper = UsageDatabaseHelper.getInstance(requireContext());
 
         // Play/Pause für letzte Aufnahme
         playLastRecordingPref = findPreference("net.devemperor.dictate.play_last_recording");
@@ -271,6 +277,42 @@ public class PreferencesFragment extends PreferenceFragmentCompat {
             });
         }
 
+        SwitchPreference tracingPreference = findPreference("net.devemperor.dictate.tracing_enabled");
+        if (tracingPreference != null) {
+            tracingPreference.setOnPreferenceChangeListener((preference, newValue) -> {
+                PipelineTracer.setEnabled((Boolean) newValue);  // the keyboard runs in the same process
+                if (!(Boolean) newValue) PipelineTracer.clear();
+                return true;
+            });
+        }
+
+        exportTraceLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
+            if (result.getResultCode() != Activity.RESULT_OK || result.getData() == null || result.getData().getData() == null) return;
+            try (OutputStream out = requireContext().getContentResolver().openOutputStream(result.getData().getData())) {
+                if (out == null) throw new IOException("No output stream");
+                int spans = PipelineTracer.writeChromeTrace(out);
+                Toast.makeText(requireContext(), getString(R.string.dictate_settings_export_trace_success, spans), Toast.LENGTH_SHORT).show();
+            } catch (IOException e) {
+                Toast.makeText(requireContext(), R.string.dictate_settings_export_trace_error, Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        Preference exportTracePreference = findPreference("net.devemperor.dictate.export_trace");
+        if (exportTracePreference != null) {
+            exportTracePreference.setOnPreferenceClickListener(preference -> {
+                if (PipelineTracer.isEmpty()) {
+                    Toast.makeText(requireContext(), R.string.dictate_settings_export_trace_empty, Toast.LENGTH_SHORT).show();
+                    return true;
+                }
+                Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("application/json");
+                intent.putExtra(Intent.EXTRA_TITLE, "dictate_trace.json");
+                exportTraceLauncher.launch(intent);
+                return true;
+            });
+        }
+
         Preference howToPreference = findPreference("net.devemperor.dictate.how_to");
         if (howToPreference != null) {
             howToPreference.setOnPreferenceClickListener(preference -> {
@@ -24,7 +24,10 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import net.devemperor.dictate.R;
 
+import java.time.LocalDate;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class UsageActivity extends AppCompatActivity {
 
@@ -48,16 +51,30 @@ public class UsageActivity extends AppCompatActivity {
             actionBar.setTitle(R.string.dictate_usage);
         }
 
-        db = new UsageDatabaseHelper(this);
+        db = UsageDatabaseHelper.getInstance(this);
         List<UsageModel> data = db.getAll();
 
+        Map<String, UsageRollupModel> lastWeek = new HashMap<>();
+        Map<String, UsageRollupModel> previousWeek = new HashMap<>();
+
         RecyclerView recyclerView = findViewById(R.id.usage_rv);
         recyclerView.setHasFixedSize(true);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-        UsageAdapter adapter = new UsageAdapter(this, data, db);
+        UsageAdapter adapter = new UsageAdapter(this, data, db, lastWeek, previousWeek);
         recyclerView.setAdapter(adapter);
 
+        // the rollups are read from the covering index in the background, only the last two weeks are touched
+        long today = LocalDate.now().toEpochDay();
+        db.loadDailyRollups(today - 13, rollups -> runOnUiThread(() -> {
+            if (isDestroyed() || data.isEmpty()) return;  // closed or reset in the meantime
+            for (UsageRollupModel rollup : rollups) {
+                Map<String, UsageRollupModel> week = rollup.getDay() > today - 7 ? lastWeek : previousWeek;
+                week.merge(rollup.getModelName(), rollup, UsageRollupModel::plus);
+            }
+            adapter.notifyDataSetChanged();
+        }));
+
         TextView totalCostTv = findViewById(R.id.usage_total_cost_tv);
         totalCostTv.setText(getString(R.string.dictate_usage_total_cost, db.getTotalCost()));
 
@@ -72,12 +89,15 @@ public class UsageActivity extends AppCompatActivity {
                 .setTitle(R.string.dictate_usage_reset_usage_title)
                 .setMessage(R.string.dictate_usage_reset_usage_message)
                 .setPositiveButton(R.string.dictate_yes, (dialog, which) -> {
-                    db.reset();
                     data.clear();
+                    lastWeek.clear();
+                    previousWeek.clear();
                     adapter.notifyDataSetChanged();
                     findViewById(R.id.usage_no_usage_tv).setVisibility(View.VISIBLE);
                     resetUsageBtn.setEnabled(false);
-                    totalCostTv.setText(getString(R.string.dictate_usage_total_cost, db.getTotalCost()));
+                    db.reset(() -> runOnUiThread(() -> {
+                        if (!isDestroyed()) totalCostTv.setText(getString(R.string.dictate_usage_total_cost, db.getTotalCost()));
+                    }));
                 })
                 .setNegativeButton(R.string.dictate_no, null)
                 .show());
@@ -86,12 +106,6 @@ public class UsageActivity extends AppCompatActivity {
         resetUsageBtn.setEnabled(!data.isEmpty());
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        db.close();
-    }
-
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
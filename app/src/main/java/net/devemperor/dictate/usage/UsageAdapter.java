@@ -15,17 +15,27 @@ import net.devemperor.dictate.DictateUtils;
 import net.devemperor.dictate.R;
 
 import java.util.List;
+import java.util.Map;
 
 public class UsageAdapter extends RecyclerView.Adapter<UsageAdapter.RecyclerViewHolder> {
 
     private final AppCompatActivity activity;
     private final List<UsageModel> data;
     private final UsageDatabaseHelper db;
+    private final Map<String, UsageRollupModel> lastWeek;
+    private final Map<String, UsageRollupModel> previousWeek;
 
-    public UsageAdapter(AppCompatActivity activity, List<UsageModel> data, UsageDatabaseHelper db) {
+    /**
+     * @param lastWeek The usage events of the last 7 days summed up per model name
+     * @param previousWeek The same for the 7 days before, to compare the response time
+     */
+    public UsageAdapter(AppCompatActivity activity, List<UsageModel> data, UsageDatabaseHelper db,
+                        Map<String, UsageRollupModel> lastWeek, Map<String, UsageRollupModel> previousWeek) {
         this.activity = activity;
         this.data = data;
         this.db = db;
+        this.lastWeek = lastWeek;
+        this.previousWeek = previousWeek;
     }
 
     @NonNull
@@ -40,9 +50,21 @@ public class UsageAdapter extends RecyclerView.Adapter<UsageAdapter.RecyclerView
         final TableRow itemInputTokensTr;
         final TableRow itemOutputTokensTr;
         final TableRow itemAudioTimeTr;
+        final TableRow itemTrimmedTimeTr;
+        final TableRow itemWeeklyRequestsTr;
+        final TableRow itemWeeklyLatencyTr;
+        final TableRow itemWeeklyConnectionTr;
+        final TableRow itemWeeklyUploadTr;
+        final TableRow itemWeeklyCostTr;
         final TextView itemInputTokensValueTv;
         final TextView itemOutputTokensValueTv;
         final TextView itemAudioTimeValueTv;
+        final TextView itemTrimmedTimeValueTv;
+        final TextView itemWeeklyRequestsValueTv;
+        final TextView itemWeeklyLatencyValueTv;
+        final TextView itemWeeklyConnectionValueTv;
+        final TextView itemWeeklyUploadValueTv;
+        final TextView itemWeeklyCostValueTv;
         final TextView itemTotalCostValueTv;
 
         public RecyclerViewHolder(View itemView) {
@@ -51,9 +73,21 @@ public class UsageAdapter extends RecyclerView.Adapter<UsageAdapter.RecyclerView
             itemInputTokensTr = itemView.findViewById(R.id.item_usage_input_tokens);
             itemOutputTokensTr = itemView.findViewById(R.id.item_usage_output_tokens);
             itemAudioTimeTr = itemView.findViewById(R.id.item_usage_audio_time);
+            itemTrimmedTimeTr = itemView.findViewById(R.id.item_usage_trimmed_time);
+            itemWeeklyRequestsTr = itemView.findViewById(R.id.item_usage_weekly_requests);
+            itemWeeklyLatencyTr = itemView.findViewById(R.id.item_usage_weekly_latency);
+            itemWeeklyConnectionTr = itemView.findViewById(R.id.item_usage_weekly_connection);
+            itemWeeklyUploadTr = itemView.findViewById(R.id.item_usage_weekly_upload);
+            itemWeeklyCostTr = itemView.findViewById(R.id.item_usage_weekly_cost);
             itemInputTokensValueTv = itemView.findViewById(R.id.item_usage_input_tokens_value);
             itemOutputTokensValueTv = itemView.findViewById(R.id.item_usage_output_tokens_value);
             itemAudioTimeValueTv = itemView.findViewById(R.id.item_usage_audio_time_value);
+            itemTrimmedTimeValueTv = itemView.findViewById(R.id.item_usage_trimmed_time_value);
+            itemWeeklyRequestsValueTv = itemView.findViewById(R.id.item_usage_weekly_requests_value);
+            itemWeeklyLatencyValueTv = itemView.findViewById(R.id.item_usage_weekly_latency_value);
+            itemWeeklyConnectionValueTv = itemView.findViewById(R.id.item_usage_weekly_connection_value);
+            itemWeeklyUploadValueTv = itemView.findViewById(R.id.item_usage_weekly_upload_value);
+            itemWeeklyCostValueTv = itemView.findViewById(R.id.item_usage_weekly_cost_value);
             itemTotalCostValueTv = itemView.findViewById(R.id.item_usage_total_cost_value);
         }
     }
@@ -81,12 +115,49 @@ public class UsageAdapter extends RecyclerView.Adapter<UsageAdapter.RecyclerView
             holder.itemOutputTokensTr.setVisibility(View.GONE);
 
             holder.itemAudioTimeValueTv.setText(activity.getString(R.string.dictate_usage_audio_time, model.getAudioTime() / 60, model.getAudioTime() % 60));
+            if (model.getTrimmedRequests() > 0) {
+                holder.itemTrimmedTimeTr.setVisibility(View.VISIBLE);
+                holder.itemTrimmedTimeValueTv.setText(activity.getString(R.string.dictate_usage_trimmed_time, model.getTrimmedAudioTime() / 60, model.getTrimmedAudioTime() % 60,
+                        (double) model.getTrimmedAudioTime() / model.getTrimmedRequests()));
+            } else {
+                holder.itemTrimmedTimeTr.setVisibility(View.GONE);
+            }
         } else {
             holder.itemAudioTimeTr.setVisibility(View.GONE);
+            holder.itemTrimmedTimeTr.setVisibility(View.GONE);
 
             holder.itemInputTokensValueTv.setText(String.valueOf(model.getInputTokens()));
             holder.itemOutputTokensValueTv.setText(String.valueOf(model.getOutputTokens()));
         }
+
+        UsageRollupModel week = lastWeek.get(model.getModelName());
+        int weeklyVisibility = week != null ? View.VISIBLE : View.GONE;
+        holder.itemWeeklyRequestsTr.setVisibility(weeklyVisibility);
+        holder.itemWeeklyLatencyTr.setVisibility(week != null && week.getAverageLatency() >= 0 ? View.VISIBLE : View.GONE);  // not if all came from the cache
+        holder.itemWeeklyConnectionTr.setVisibility(week != null && week.getAverageWarmTtfb() >= 0 && week.getAverageColdTtfb() >= 0
+                ? View.VISIBLE : View.GONE);  // only comparable with requests of both kinds
+        holder.itemWeeklyUploadTr.setVisibility(week != null && week.getAudioTime() > 0 && week.getBytesUploaded() > 0 ? View.VISIBLE : View.GONE);  // only for transcriptions
+        holder.itemWeeklyCostTr.setVisibility(weeklyVisibility);
+        if (week != null) {
+            if (week.getCachedRequests() > 0) {
+                holder.itemWeeklyRequestsValueTv.setText(activity.getString(R.string.dictate_usage_weekly_requests_cached, week.getRequests(), week.getFailedRequests(), week.getCachedRequests()));
+            } else {
+                holder.itemWeeklyRequestsValueTv.setText(activity.getString(R.string.dictate_usage_weekly_requests, week.getRequests(), week.getFailedRequests()));
+            }
+            UsageRollupModel before = previousWeek.get(model.getModelName());
+            if (before != null && before.getAverageLatency() >= 0) {
+                holder.itemWeeklyLatencyValueTv.setText(activity.getString(R.string.dictate_usage_weekly_latency_previous, week.getAverageLatency(), before.getAverageLatency()));
+            } else if (week.getAverageTtfb() >= 0) {
+                holder.itemWeeklyLatencyValueTv.setText(activity.getString(R.string.dictate_usage_weekly_latency, week.getAverageLatency(), week.getAverageTtfb()));
+            } else {
+                holder.itemWeeklyLatencyValueTv.setText(activity.getString(R.string.dictate_usage_weekly_latency_plain, week.getAverageLatency()));
+            }
+            holder.itemWeeklyConnectionValueTv.setText(activity.getString(R.string.dictate_usage_weekly_connection, week.getAverageWarmTtfb(), week.getAverageColdTtfb()));
+            if (week.getAudioTime() > 0) {
+                holder.itemWeeklyUploadValueTv.setText(activity.getString(R.string.dictate_usage_weekly_upload, week.getBytesUploaded() / 1024.0 / week.getAudioTime()));
+            }
+            holder.itemWeeklyCostValueTv.setText(activity.getString(R.string.dictate_usage_cost, week.getCost()));
+        }
     }
 
     @Override
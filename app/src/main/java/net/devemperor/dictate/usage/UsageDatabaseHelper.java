@@ -1,29 +1,66 @@
 package net.devemperor.dictate.usage;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-
-import androidx.annotation.Nullable;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
 
 import net.devemperor.dictate.DictateUtils;
 
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps one connection to the usage database open for the lifetime of the process. Usage is written
+ * on a single background thread with compiled statements, so callers never wait for the disk.
+ * USAGE holds the totals per model, USAGE_EVENTS one row per request for rollups over time.
+ */
 public class UsageDatabaseHelper extends SQLiteOpenHelper {
 
+    private static UsageDatabaseHelper instance;
+
+    private static final int EVENT_BATCH_SIZE = 16;
+    private static final long EVENT_FLUSH_DELAY_MS = 5000;
+    private static final String CREATE_EVENTS_TABLE = "CREATE TABLE USAGE_EVENTS (ID INTEGER PRIMARY KEY, TIMESTAMP LONG, DAY LONG, MODEL_NAME TEXT, MODEL_PROVIDER LONG, "
+            + "AUDIO_TIME LONG, INPUT_TOKENS LONG, OUTPUT_TOKENS LONG, BYTES_UPLOADED LONG, TTFB LONG, LATENCY LONG, OUTCOME LONG, COST REAL, CONNECTION LONG, ENCODE_MILLIS LONG)";
+    // covers the rollup query, so it is answered from the index without reading the table
+    private static final String CREATE_EVENTS_ROLLUP_INDEX = "CREATE INDEX USAGE_EVENTS_ROLLUP ON USAGE_EVENTS (DAY, MODEL_NAME, MODEL_PROVIDER, OUTCOME, "
+            + "AUDIO_TIME, INPUT_TOKENS, OUTPUT_TOKENS, BYTES_UPLOADED, TTFB, LATENCY, COST, CONNECTION)";
+
     Context context;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    private final List<UsageEvent> pendingEvents = new ArrayList<>();
+    private boolean flushScheduled = false;  // guarded by pendingEvents
+    private SQLiteStatement upsertStatement;  // only used on the writer thread
+    private SQLiteStatement updateStatement;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement insertEventStatement;
 
-    public UsageDatabaseHelper(@Nullable Context context) {
-        super(context, "usage.db", null, 2);
+    private UsageDatabaseHelper(Context context) {
+        super(context, "usage.db", null, 6);
         this.context = context;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static synchronized UsageDatabaseHelper getInstance(Context context) {
+        if (instance == null) instance = new UsageDatabaseHelper(context.getApplicationContext());
+        return instance;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL("CREATE TABLE USAGE (MODEL_NAME TEXT PRIMARY KEY, AUDIO_TIME LONG, INPUT_TOKENS LONG, OUTPUT_TOKENS LONG, MODEL_PROVIDER LONG)");
+        db.execSQL("CREATE TABLE USAGE (MODEL_NAME TEXT PRIMARY KEY, AUDIO_TIME LONG, INPUT_TOKENS LONG, OUTPUT_TOKENS LONG, MODEL_PROVIDER LONG, TRIMMED_AUDIO_TIME LONG DEFAULT 0, TRIMMED_REQUESTS LONG DEFAULT 0)");
+        db.execSQL(CREATE_EVENTS_TABLE);
+        db.execSQL(CREATE_EVENTS_ROLLUP_INDEX);
     }
 
     @Override
@@ -31,42 +68,214 @@ public class UsageDatabaseHelper extends SQLiteOpenHelper {
         if (oldVersion <= 1 && newVersion >= 2) {
             db.execSQL("ALTER TABLE USAGE ADD COLUMN MODEL_PROVIDER LONG DEFAULT 0");
         }
+        if (oldVersion <= 2 && newVersion >= 3) {
+            db.execSQL("ALTER TABLE USAGE ADD COLUMN TRIMMED_AUDIO_TIME LONG DEFAULT 0");
+            db.execSQL("ALTER TABLE USAGE ADD COLUMN TRIMMED_REQUESTS LONG DEFAULT 0");
+        }
+        if (oldVersion <= 3 && newVersion >= 4) {
+            db.execSQL(CREATE_EVENTS_TABLE);
+            db.execSQL(CREATE_EVENTS_ROLLUP_INDEX);
+        } else {  // a table created above already has the newer columns
+            if (oldVersion == 4 && newVersion >= 5) {
+                db.execSQL("ALTER TABLE USAGE_EVENTS ADD COLUMN CONNECTION LONG");
+                db.execSQL("DROP INDEX USAGE_EVENTS_ROLLUP");
+                db.execSQL(CREATE_EVENTS_ROLLUP_INDEX);
+            }
+            if (oldVersion <= 5 && newVersion >= 6) {
+                db.execSQL("ALTER TABLE USAGE_EVENTS ADD COLUMN ENCODE_MILLIS LONG");
+            }
+        }
     }
 
     public void edit(String model, long timeToAdd, long inputTokensToAdd, long outputTokensToAdd, long provider) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM USAGE WHERE MODEL_NAME='" + model + "'", null);
+        edit(model, timeToAdd, inputTokensToAdd, outputTokensToAdd, provider, -1);
+    }
 
-        boolean entryExists = cursor.moveToFirst();
-        cursor.close();
+    /**
+     * Adds the usage in the background, returns immediately
+     *
+     * @param trimmedTimeToAdd The silence in seconds that was removed from the recording before upload, -1 if it was not trimmed
+     */
+    public void edit(String model, long timeToAdd, long inputTokensToAdd, long outputTokensToAdd, long provider, long trimmedTimeToAdd) {
+        long trimmedRequestsToAdd = trimmedTimeToAdd >= 0 ? 1 : 0;
+        long trimmedTime = Math.max(0, trimmedTimeToAdd);
+        writer.execute(() -> {
+            try {
+                write(model, timeToAdd, inputTokensToAdd, outputTokensToAdd, provider, trimmedTime, trimmedRequestsToAdd);
+            } catch (SQLiteException e) {
+                Log.e("UsageDatabaseHelper", "Could not save usage of " + model, e);
+            }
+        });
+    }
+
+    private void write(String model, long time, long inputTokens, long outputTokens, long provider, long trimmedTime, long trimmedRequests) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {  // UPSERT needs SQLite 3.24
+            if (upsertStatement == null) {
+                upsertStatement = db.compileStatement("INSERT INTO USAGE (MODEL_NAME, AUDIO_TIME, INPUT_TOKENS, OUTPUT_TOKENS, MODEL_PROVIDER, TRIMMED_AUDIO_TIME, TRIMMED_REQUESTS) VALUES (?, ?, ?, ?, ?, ?, ?) "
+                        + "ON CONFLICT(MODEL_NAME) DO UPDATE SET AUDIO_TIME = AUDIO_TIME + excluded.AUDIO_TIME, INPUT_TOKENS = INPUT_TOKENS + excluded.INPUT_TOKENS, "
+                        + "OUTPUT_TOKENS = OUTPUT_TOKENS + excluded.OUTPUT_TOKENS, TRIMMED_AUDIO_TIME = TRIMMED_AUDIO_TIME + excluded.TRIMMED_AUDIO_TIME, "
+                        + "TRIMMED_REQUESTS = TRIMMED_REQUESTS + excluded.TRIMMED_REQUESTS");
+            }
+            bindUsage(upsertStatement, model, time, inputTokens, outputTokens, provider, trimmedTime, trimmedRequests);
+            upsertStatement.executeInsert();
+            return;
+        }
+
+        if (updateStatement == null) {
+            updateStatement = db.compileStatement("UPDATE USAGE SET AUDIO_TIME = AUDIO_TIME + ?, INPUT_TOKENS = INPUT_TOKENS + ?, OUTPUT_TOKENS = OUTPUT_TOKENS + ?, "
+                    + "TRIMMED_AUDIO_TIME = TRIMMED_AUDIO_TIME + ?, TRIMMED_REQUESTS = TRIMMED_REQUESTS + ? WHERE MODEL_NAME = ?");
+            insertStatement = db.compileStatement("INSERT INTO USAGE (MODEL_NAME, AUDIO_TIME, INPUT_TOKENS, OUTPUT_TOKENS, MODEL_PROVIDER, TRIMMED_AUDIO_TIME, TRIMMED_REQUESTS) VALUES (?, ?, ?, ?, ?, ?, ?)");
+        }
+        updateStatement.bindLong(1, time);
+        updateStatement.bindLong(2, inputTokens);
+        updateStatement.bindLong(3, outputTokens);
+        updateStatement.bindLong(4, trimmedTime);
+        updateStatement.bindLong(5, trimmedRequests);
+        updateStatement.bindString(6, model);
+        if (updateStatement.executeUpdateDelete() == 0) {  // only this thread writes, so the row can't appear in between
+            bindUsage(insertStatement, model, time, inputTokens, outputTokens, provider, trimmedTime, trimmedRequests);
+            insertStatement.executeInsert();
+        }
+    }
+
+    private static void bindUsage(SQLiteStatement statement, String model, long time, long inputTokens, long outputTokens, long provider, long trimmedTime, long trimmedRequests) {
+        statement.bindString(1, model);
+        statement.bindLong(2, time);
+        statement.bindLong(3, inputTokens);
+        statement.bindLong(4, outputTokens);
+        statement.bindLong(5, provider);
+        statement.bindLong(6, trimmedTime);
+        statement.bindLong(7, trimmedRequests);
+    }
 
-        if (!entryExists) {
-            ContentValues cv = new ContentValues();
-            cv.put("MODEL_NAME", model);
-            cv.put("AUDIO_TIME", timeToAdd);
-            cv.put("INPUT_TOKENS", inputTokensToAdd);
-            cv.put("OUTPUT_TOKENS", outputTokensToAdd);
-            cv.put("MODEL_PROVIDER", provider);
-            db.insert("USAGE", null, cv);
-        } else {
-            cursor = db.rawQuery("SELECT * FROM USAGE WHERE MODEL_NAME='" + model + "'", null);
-            if (cursor.moveToFirst()) {
-                ContentValues cv = new ContentValues();
-                cv.put("AUDIO_TIME", cursor.getLong(1) + timeToAdd);
-                cv.put("INPUT_TOKENS", cursor.getLong(2) + inputTokensToAdd);
-                cv.put("OUTPUT_TOKENS", cursor.getLong(3) + outputTokensToAdd);
-                db.update("USAGE", cv, "MODEL_NAME='" + model + "'", null);
+    /**
+     * Appends the event to USAGE_EVENTS, events are collected and written in one transaction
+     * when enough of them arrived or a few seconds after the first one
+     */
+    public void logEvent(UsageEvent event) {
+        synchronized (pendingEvents) {
+            pendingEvents.add(event);
+            if (pendingEvents.size() >= EVENT_BATCH_SIZE) {
+                writer.execute(this::flushEvents);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                writer.schedule(this::flushEvents, EVENT_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
             }
-            cursor.close();
+        }
+    }
+
+    private void flushEvents() {
+        List<UsageEvent> events;
+        synchronized (pendingEvents) {
+            flushScheduled = false;
+            if (pendingEvents.isEmpty()) return;
+            events = new ArrayList<>(pendingEvents);
+            pendingEvents.clear();
         }
 
-        db.close();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            if (insertEventStatement == null) {
+                insertEventStatement = db.compileStatement("INSERT INTO USAGE_EVENTS (TIMESTAMP, DAY, MODEL_NAME, MODEL_PROVIDER, AUDIO_TIME, INPUT_TOKENS, OUTPUT_TOKENS, "
+                        + "BYTES_UPLOADED, TTFB, LATENCY, OUTCOME, COST, CONNECTION, ENCODE_MILLIS) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            ZoneId zone = ZoneId.systemDefault();
+            db.beginTransaction();
+            try {
+                for (UsageEvent event : events) {
+                    insertEventStatement.bindLong(1, event.getTimestamp());
+                    insertEventStatement.bindLong(2, Instant.ofEpochMilli(event.getTimestamp()).atZone(zone).toLocalDate().toEpochDay());
+                    insertEventStatement.bindString(3, event.getModelName());
+                    insertEventStatement.bindLong(4, event.getModelProvider());
+                    insertEventStatement.bindLong(5, event.getAudioTime());
+                    insertEventStatement.bindLong(6, event.getInputTokens());
+                    insertEventStatement.bindLong(7, event.getOutputTokens());
+                    insertEventStatement.bindLong(8, event.getBytesUploaded());
+                    if (event.getTtfbMillis() >= 0) insertEventStatement.bindLong(9, event.getTtfbMillis());
+                    else insertEventStatement.bindNull(9);
+                    insertEventStatement.bindLong(10, event.getLatencyMillis());
+                    insertEventStatement.bindLong(11, event.getOutcome());
+                    // prices change, so the cost is fixed when the request is made
+                    insertEventStatement.bindDouble(12, event.getOutcome() == UsageEvent.OUTCOME_SUCCESS
+                            ? DictateUtils.calcModelCost(event.getModelName(), event.getAudioTime(), event.getInputTokens(), event.getOutputTokens()) : 0);
+                    if (event.getConnection() != UsageEvent.CONNECTION_UNKNOWN) insertEventStatement.bindLong(13, event.getConnection());
+                    else insertEventStatement.bindNull(13);
+                    if (event.getEncodeMillis() >= 0) insertEventStatement.bindLong(14, event.getEncodeMillis());
+                    else insertEventStatement.bindNull(14);
+                    insertEventStatement.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e("UsageDatabaseHelper", "Could not save " + events.size() + " usage events", e);
+        }
     }
 
-    public void reset() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.execSQL("DELETE FROM USAGE");
-        db.close();
+    /**
+     * Sums up the usage events per day, model and provider on the writer thread, after the events which are
+     * still waiting were written, so the caller never blocks
+     *
+     * @param sinceDay The first day to include, as days since 1970-01-01 in local time
+     * @param callback Receives the rollups, ordered by day, on the writer thread
+     */
+    public void loadDailyRollups(long sinceDay, Consumer<List<UsageRollupModel>> callback) {
+        writer.execute(() -> {
+            flushEvents();
+            List<UsageRollupModel> rollups;
+            try {
+                rollups = queryDailyRollups(sinceDay);
+            } catch (SQLiteException e) {
+                Log.e("UsageDatabaseHelper", "Could not read the usage rollups", e);
+                rollups = new ArrayList<>();
+            }
+            callback.accept(rollups);
+        });
+    }
+
+    private List<UsageRollupModel> queryDailyRollups(long sinceDay) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        // cache hits are counted separately, their latency would make the API look faster than it is
+        Cursor cursor = db.rawQuery("SELECT DAY, MODEL_NAME, MODEL_PROVIDER, COUNT(*), SUM(OUTCOME IN (" + UsageEvent.OUTCOME_ERROR + ", " + UsageEvent.OUTCOME_CANCELLED + ")), "
+                + "SUM(OUTCOME = " + UsageEvent.OUTCOME_CACHED + "), SUM(AUDIO_TIME), SUM(INPUT_TOKENS), SUM(OUTPUT_TOKENS), SUM(BYTES_UPLOADED), "
+                + "SUM(CASE WHEN OUTCOME = " + UsageEvent.OUTCOME_CACHED + " THEN 0 ELSE LATENCY END), TOTAL(TTFB), COUNT(TTFB), TOTAL(COST), "
+                + "TOTAL(CASE WHEN CONNECTION = " + UsageEvent.CONNECTION_WARM + " THEN TTFB END), COUNT(CASE WHEN CONNECTION = " + UsageEvent.CONNECTION_WARM + " THEN TTFB END), "
+                + "TOTAL(CASE WHEN CONNECTION = " + UsageEvent.CONNECTION_COLD + " THEN TTFB END), COUNT(CASE WHEN CONNECTION = " + UsageEvent.CONNECTION_COLD + " THEN TTFB END) "
+                + "FROM USAGE_EVENTS WHERE DAY >= ? GROUP BY DAY, MODEL_NAME, MODEL_PROVIDER ORDER BY DAY", new String[]{String.valueOf(sinceDay)});
+
+        List<UsageRollupModel> rollups = new ArrayList<>();
+        if (cursor.moveToFirst()) {
+            do {
+                rollups.add(new UsageRollupModel(cursor.getLong(0), cursor.getString(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(4), cursor.getLong(5),
+                        cursor.getLong(6), cursor.getLong(7), cursor.getLong(8), cursor.getLong(9), cursor.getLong(10), cursor.getLong(11), cursor.getLong(12), cursor.getDouble(13),
+                        cursor.getLong(14), cursor.getLong(15), cursor.getLong(16), cursor.getLong(17)));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return rollups;
+    }
+
+    /**
+     * Deletes all usage on the writer thread after the pending writes are done, so the caller never blocks
+     *
+     * @param callback Called on the writer thread when the tables are empty, may be null
+     */
+    public void reset(Runnable callback) {
+        synchronized (pendingEvents) {
+            pendingEvents.clear();
+        }
+        writer.execute(() -> {
+            try {
+                SQLiteDatabase db = getWritableDatabase();
+                db.execSQL("DELETE FROM USAGE");
+                db.execSQL("DELETE FROM USAGE_EVENTS");
+            } catch (SQLiteException e) {
+                Log.e("UsageDatabaseHelper", "Could not reset usage", e);
+            }
+            if (callback != null) callback.run();
+        });
     }
 
     public List<UsageModel> getAll() {
@@ -76,17 +285,16 @@ public class UsageDatabaseHelper extends SQLiteOpenHelper {
         List<UsageModel> models = new ArrayList<>();
         if (cursor.moveToFirst()) {
             do {
-                models.add(new UsageModel(cursor.getString(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(4)));
+                models.add(new UsageModel(cursor.getString(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(4), cursor.getLong(5), cursor.getLong(6)));
             } while (cursor.moveToNext());
         }
         cursor.close();
-        db.close();
         return models;
     }
 
     public double getCost(String modelName) {
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM USAGE WHERE MODEL_NAME='" + modelName + "'", null);
+        Cursor cursor = db.rawQuery("SELECT * FROM USAGE WHERE MODEL_NAME = ?", new String[]{modelName});
 
         double cost = 0;
         if (cursor.moveToFirst()) {
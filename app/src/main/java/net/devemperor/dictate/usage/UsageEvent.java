@@ -0,0 +1,112 @@
+package net.devemperor.dictate.usage;
+
+/**
+ * A single transcription or rewording request as it is stored in the USAGE_EVENTS table
+ */
+public class UsageEvent {
+
+    public static final int OUTCOME_SUCCESS = 0;
+    public static final int OUTCOME_ERROR = 1;
+    public static final int OUTCOME_CANCELLED = 2;
+    public static final int OUTCOME_CACHED = 3;  // answered from a local cache, nothing was sent or billed
+
+    public static final int CONNECTION_UNKNOWN = -1;
+    public static final int CONNECTION_COLD = 0;
+    public static final int CONNECTION_WARM = 1;  // the connection was pre-warmed or kept alive by a recent request
+
+    private final long timestamp;
+    private final String modelName;
+    private final long modelProvider;
+    private final long audioTime;
+    private final long inputTokens;
+    private final long outputTokens;
+    private final long bytesUploaded;
+    private final long ttfbMillis;
+    private final long latencyMillis;
+    private final int outcome;
+    private final int connection;
+    private final long encodeMillis;
+
+    /**
+     * @param ttfbMillis The time until the first byte of the response arrived, -1 if unknown
+     */
+    public UsageEvent(String modelName, long modelProvider, long audioTime, long inputTokens, long outputTokens,
+                      long bytesUploaded, long ttfbMillis, long latencyMillis, int outcome) {
+        this(modelName, modelProvider, audioTime, inputTokens, outputTokens, bytesUploaded, ttfbMillis, latencyMillis, outcome, CONNECTION_UNKNOWN);
+    }
+
+    /**
+     * @param connection Whether the request was sent over a warm connection, one of the CONNECTION constants
+     */
+    public UsageEvent(String modelName, long modelProvider, long audioTime, long inputTokens, long outputTokens,
+                      long bytesUploaded, long ttfbMillis, long latencyMillis, int outcome, int connection) {
+        this(modelName, modelProvider, audioTime, inputTokens, outputTokens, bytesUploaded, ttfbMillis, latencyMillis, outcome, connection, -1);
+    }
+
+    /**
+     * @param encodeMillis The time it took to encode the screenshot sent with the request, -1 if there was none
+     */
+    public UsageEvent(String modelName, long modelProvider, long audioTime, long inputTokens, long outputTokens,
+                      long bytesUploaded, long ttfbMillis, long latencyMillis, int outcome, int connection, long encodeMillis) {
+        this.timestamp = System.currentTimeMillis();
+        this.modelName = modelName;
+        this.modelProvider = modelProvider;
+        this.audioTime = audioTime;
+        this.inputTokens = inputTokens;
+        this.outputTokens = outputTokens;
+        this.bytesUploaded = bytesUploaded;
+        this.ttfbMillis = ttfbMillis;
+        this.latencyMillis = latencyMillis;
+        this.outcome = outcome;
+        this.connection = connection;
+        this.encodeMillis = encodeMillis;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public long getModelProvider() {
+        return modelProvider;
+    }
+
+    public long getAudioTime() {
+        return audioTime;
+    }
+
+    public long getInputTokens() {
+        return inputTokens;
+    }
+
+    public long getOutputTokens() {
+        return outputTokens;
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    public long getTtfbMillis() {
+        return ttfbMillis;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public int getOutcome() {
+        return outcome;
+    }
+
+    public int getConnection() {
+        return connection;
+    }
+
+    public long getEncodeMillis() {
+        return encodeMillis;
+    }
+}
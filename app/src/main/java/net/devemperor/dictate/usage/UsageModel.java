@@ -6,13 +6,17 @@ public class UsageModel {
     private final long inputTokens;
     private final long outputTokens;
     private final long modelProvider;
+    private final long trimmedAudioTime;
+    private final long trimmedRequests;
 
-    public UsageModel(String modelName, long audioTime, long inputTokens, long outputTokens, long modelProvider) {
+    public UsageModel(String modelName, long audioTime, long inputTokens, long outputTokens, long modelProvider, long trimmedAudioTime, long trimmedRequests) {
         this.modelName = modelName;
         this.audioTime = audioTime;
         this.inputTokens = inputTokens;
         this.outputTokens = outputTokens;
         this.modelProvider = modelProvider;
+        this.trimmedAudioTime = trimmedAudioTime;
+        this.trimmedRequests = trimmedRequests;
     }
 
     public String getModelName() {
@@ -34,4 +38,12 @@ public class UsageModel {
     public long getModelProvider() {
         return modelProvider;
     }
+
+    public long getTrimmedAudioTime() {
+        return trimmedAudioTime;
+    }
+
+    public long getTrimmedRequests() {
+        return trimmedRequests;
+    }
 }
@@ -0,0 +1,136 @@
+package net.devemperor.dictate.usage;
+
+/**
+ * The summed up usage events of one model on one day, rollups of several days can be combined with {@link #plus}
+ */
+public class UsageRollupModel {
+    private final long day;
+    private final String modelName;
+    private final long modelProvider;
+    private final long requests;
+    private final long failedRequests;
+    private final long cachedRequests;
+    private final long audioTime;
+    private final long inputTokens;
+    private final long outputTokens;
+    private final long bytesUploaded;
+    private final long latencySum;
+    private final long ttfbSum;
+    private final long ttfbCount;
+    private final double cost;
+    private final long warmTtfbSum;
+    private final long warmTtfbCount;
+    private final long coldTtfbSum;
+    private final long coldTtfbCount;
+
+    public UsageRollupModel(long day, String modelName, long modelProvider, long requests, long failedRequests, long cachedRequests, long audioTime,
+                            long inputTokens, long outputTokens, long bytesUploaded, long latencySum, long ttfbSum, long ttfbCount, double cost,
+                            long warmTtfbSum, long warmTtfbCount, long coldTtfbSum, long coldTtfbCount) {
+        this.day = day;
+        this.modelName = modelName;
+        this.modelProvider = modelProvider;
+        this.requests = requests;
+        this.failedRequests = failedRequests;
+        this.cachedRequests = cachedRequests;
+        this.audioTime = audioTime;
+        this.inputTokens = inputTokens;
+        this.outputTokens = outputTokens;
+        this.bytesUploaded = bytesUploaded;
+        this.latencySum = latencySum;
+        this.ttfbSum = ttfbSum;
+        this.ttfbCount = ttfbCount;
+        this.cost = cost;
+        this.warmTtfbSum = warmTtfbSum;
+        this.warmTtfbCount = warmTtfbCount;
+        this.coldTtfbSum = coldTtfbSum;
+        this.coldTtfbCount = coldTtfbCount;
+    }
+
+    /**
+     * @return The sum of both rollups, the day and model of this rollup are kept
+     */
+    public UsageRollupModel plus(UsageRollupModel other) {
+        return new UsageRollupModel(day, modelName, modelProvider, requests + other.requests, failedRequests + other.failedRequests, cachedRequests + other.cachedRequests,
+                audioTime + other.audioTime, inputTokens + other.inputTokens, outputTokens + other.outputTokens, bytesUploaded + other.bytesUploaded,
+                latencySum + other.latencySum, ttfbSum + other.ttfbSum, ttfbCount + other.ttfbCount, cost + other.cost,
+                warmTtfbSum + other.warmTtfbSum, warmTtfbCount + other.warmTtfbCount, coldTtfbSum + other.coldTtfbSum, coldTtfbCount + other.coldTtfbCount);
+    }
+
+    /**
+     * @return The day as days since 1970-01-01 in local time
+     */
+    public long getDay() {
+        return day;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public long getModelProvider() {
+        return modelProvider;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getFailedRequests() {
+        return failedRequests;
+    }
+
+    /**
+     * @return The requests which were answered from a local cache
+     */
+    public long getCachedRequests() {
+        return cachedRequests;
+    }
+
+    public long getAudioTime() {
+        return audioTime;
+    }
+
+    public long getInputTokens() {
+        return inputTokens;
+    }
+
+    public long getOutputTokens() {
+        return outputTokens;
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * @return The average latency of the requests which were sent in seconds, -1 if there were none
+     */
+    public double getAverageLatency() {
+        return requests > cachedRequests ? latencySum / 1000.0 / (requests - cachedRequests) : -1;
+    }
+
+    /**
+     * @return The average time to the first byte in seconds, -1 if it is unknown
+     */
+    public double getAverageTtfb() {
+        return ttfbCount > 0 ? ttfbSum / 1000.0 / ttfbCount : -1;
+    }
+
+    /**
+     * @return The average time to the first byte over a pre-warmed or recently used connection in seconds, -1 if there were none
+     */
+    public double getAverageWarmTtfb() {
+        return warmTtfbCount > 0 ? warmTtfbSum / 1000.0 / warmTtfbCount : -1;
+    }
+
+    /**
+     * @return The average time to the first byte over a new connection in seconds, -1 if there were none
+     */
+    public double getAverageColdTtfb() {
+        return coldTtfbCount > 0 ? coldTtfbSum / 1000.0 / coldTtfbCount : -1;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+}
@@ -0,0 +1,61 @@
+package net.devemperor.dictate.api;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SplitTranscriptionJobTest {
+
+    @Test
+    public void mergeOverlapping_removesRepeatedWords() {
+        assertEquals("the quick brown fox jumps over the lazy dog",
+                SplitTranscriptionJob.mergeOverlapping("the quick brown fox jumps over", "fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void mergeOverlapping_dropsWordsCutAtTheWindowEdges() {
+        assertEquals("we walked to the old market yesterday and bought bread",
+                SplitTranscriptionJob.mergeOverlapping("we walked to the old market yest", "erday to the old market yesterday and bought bread"));
+    }
+
+    @Test
+    public void mergeOverlapping_ignoresCaseAndPunctuation() {
+        assertEquals("I said hello, world. how are you",
+                SplitTranscriptionJob.mergeOverlapping("I said hello, world.", "Hello world, how are you"));
+    }
+
+    @Test
+    public void mergeOverlapping_keepsBothTextsWithoutOverlap() {
+        assertEquals("first part ends here second part starts here",
+                SplitTranscriptionJob.mergeOverlapping("first part ends here", "second part starts here"));
+    }
+
+    @Test
+    public void mergeOverlapping_keepsTextsWithSingleRepeatedWord() {
+        assertEquals("we stopped here here we go again",
+                SplitTranscriptionJob.mergeOverlapping("we stopped here", "here we go again"));
+    }
+
+    @Test
+    public void mergeOverlapping_comparesJapaneseByCharacter() {
+        assertEquals("今日は東京駅で友達と会いました。それから一緒に昼ご飯を食べました。",
+                SplitTranscriptionJob.mergeOverlapping("今日は東京駅で友達と会いました。それから一緒に", "それから一緒に昼ご飯を食べました。"));
+    }
+
+    @Test
+    public void mergeOverlapping_dropsChineseCharactersCutAtTheWindowEdges() {
+        assertEquals("我们明天早上去公园散步然后回家吃饭休息",
+                SplitTranscriptionJob.mergeOverlapping("我们明天早上去公园散步然后回家吃", "步然后回家吃饭休息"));
+    }
+
+    @Test
+    public void mergeOverlapping_joinsChineseWithoutOverlapWithoutSpace() {
+        assertEquals("你好世界", SplitTranscriptionJob.mergeOverlapping("你好", "世界"));
+    }
+
+    @Test
+    public void mergeOverlapping_returnsTheOtherTextIfOneIsEmpty() {
+        assertEquals("abc", SplitTranscriptionJob.mergeOverlapping("", "abc"));
+        assertEquals("abc", SplitTranscriptionJob.mergeOverlapping("abc", ""));
+    }
+}